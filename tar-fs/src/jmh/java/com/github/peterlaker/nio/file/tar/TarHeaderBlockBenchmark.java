@@ -0,0 +1,116 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times {@link TarHeaderBlock#check()} against checking the same blocks a
+ * byte at a time, the way the header scan did before. The blocks are laid
+ * out like an archive in a direct buffer, each header followed by a block of
+ * data, and end with two zero blocks. Run with gradle jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(TarHeaderBlockBenchmark.BLOCKS)
+public class TarHeaderBlockBenchmark {
+
+	static final int BLOCKS = 200000;
+
+	private static final byte[] MAGIC = TarHeader.USTAR_MAGIC
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private ByteBuffer archive;
+	private final TarHeaderBlock block = new TarHeaderBlock();
+
+	@Setup
+	public void setUp() {
+		archive = ByteBuffer.allocateDirect(BLOCKS * TarConstants.HEADER_BLOCK);
+		Random random = new Random(0);
+		byte[] data = new byte[TarConstants.DATA_BLOCK];
+		for (int i = 0; i < BLOCKS - 2; i++) {
+			int offset = i * TarConstants.HEADER_BLOCK;
+			if (i % 2 == 0) {
+				block.wrap(archive, offset).put(TarHeader.createHeader("dir"
+						+ i / 1000 + "/file" + i, TarConstants.DATA_BLOCK,
+						1500000000L + i, false));
+			} else {
+				random.nextBytes(data);
+				for (int j = 0; j < data.length; j++) {
+					archive.put(offset + j, data[j]);
+				}
+			}
+		}
+		// both checks have to tell every block apart the same way
+		for (int i = 0; i < BLOCKS; i++) {
+			int offset = i * TarConstants.HEADER_BLOCK;
+			int kind = block.wrap(archive, offset).check();
+			if (kind != checkBytes(archive, offset)) {
+				throw new AssertionError("Block " + i + " checked as " + kind
+						+ " and " + checkBytes(archive, offset));
+			}
+		}
+	}
+
+	@Benchmark
+	public void longAtATime(Blackhole bh) {
+		for (int i = 0; i < BLOCKS; i++) {
+			bh.consume(block.wrap(archive, i * TarConstants.HEADER_BLOCK)
+					.check());
+		}
+	}
+
+	@Benchmark
+	public void byteAtATime(Blackhole bh) {
+		for (int i = 0; i < BLOCKS; i++) {
+			bh.consume(checkBytes(archive, i * TarConstants.HEADER_BLOCK));
+		}
+	}
+
+	/*
+	 * A zero block, the magic and the two sums, a byte at a time.
+	 */
+	private static int checkBytes(ByteBuffer bb, int base) {
+		boolean zero = true;
+		for (int i = 0; i < TarConstants.HEADER_BLOCK && zero; i++) {
+			zero = bb.get(base + i) == 0;
+		}
+		if (zero) {
+			return TarHeaderBlock.ZERO;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bb.get(base + TarHeaderBlock.MAGIC + i) != MAGIC[i]) {
+				return TarHeaderBlock.OTHER;
+			}
+		}
+		long unsigned = 0;
+		long signed = 0;
+		for (int i = 0; i < TarConstants.HEADER_BLOCK; i++) {
+			boolean chksum = i >= TarHeaderBlock.CHKSUM
+					&& i < TarHeaderBlock.CHKSUM + TarHeader.CHKSUMLEN;
+			byte b = chksum ? (byte) ' ' : bb.get(base + i);
+			unsigned += b & 0xff;
+			signed += b;
+		}
+		byte[] field = new byte[TarHeader.CHKSUMLEN];
+		for (int i = 0; i < field.length; i++) {
+			field[i] = bb.get(base + TarHeaderBlock.CHKSUM + i);
+		}
+		long checkSum = Octal.parseOctal(field, 0, field.length);
+		return checkSum == unsigned || checkSum == signed
+				? TarHeaderBlock.HEADER : TarHeaderBlock.CORRUPT;
+	}
+
+}
@@ -1,22 +1,31 @@
 package com.github.peterlaker.nio.file.tar;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessMode;
+import java.nio.file.ClosedFileSystemException;
 import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
@@ -26,43 +35,119 @@ import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.regex.Pattern;
 
 public abstract class AbstractTarFileSystem extends FileSystem {
 
 	private final AbstractTarFileSystemProvider provider;
+	private final TarCodec codec; // reads and writes the archive file
 	private final TarPath defaultdir;
 	private boolean readOnly = false;
 	private final Path tfpath;
 	private final List<OutputStream> outputStreams;
+	private final List<TarEntryBuffer> entryBuffers = new ArrayList<>();
+	// entries of the archive left as they are in it, by row
+	private TarEntryTable table = new TarEntryTable();
+	// entries of rows about to be changed, read again from the archive
+	private final Map<Integer, TarEntry> detachedRows = new HashMap<>();
+	// entries added since opened, or of an archive read as a stream
 	private Map<TarEntry, byte[]> entriesToData;
+	// entries by resolved path, looked up without the lock
+	private Map<IndexNode, IndexNode> inodes;
+	private IndexNode root; // root of the directory tree of the inodes
+	private long pseudoModTime; // mtime of directories missing an entry
+	// open while entries are read lazily
+	private SeekableByteChannel archiveChannel;
+	private TarMappedArchive mappedArchive; // set when archiveChannel is mapped
+	// entries of the archive that were replaced or deleted
+	private final List<TarEntry> removedEntries = new ArrayList<>();
+	private boolean created; // the archive didn't exist when opened
+	private long archiveEnd; // offset of the EOF blocks in the archive
+	// completes once the archive is indexed, possibly in the background
+	private final FutureTask<Void> indexing;
+	private final Thread indexer; // runs the indexing in the background
+	private final Object indexMonitor = new Object(); // signals new entries
+	private long indexedCount; // entries indexed so far, guarded by monitor
+	private boolean indexComplete; // every entry of the archive is indexed
+	// nothing changes the index any more, it is read without the lock
+	private volatile boolean immutable;
 
 	// configurable by env map
 	private final String defaultDir; // default dir for the file system
 	private final boolean createNew; // create a new tar if not exists
+	private final boolean lazy; // read entry data only when requested
+	private final boolean mmap; // map the lazily read archive in memory
+	private final long spillThreshold; // size spilled to a scratch file
+	private final Path indexPath; // index of the headers, null if not kept
+	private final boolean background; // return before the archive is indexed
+	private final int scanThreads; // threads scanning a large archive
+	private final boolean frozen; // opened read only, never written back
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	private static final long DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+	// smallest range of an archive scanned on a thread of its own
+	private static final long MIN_SCAN_RANGE = 64 * 1024 * 1024;
+	private static final int INDEX_BATCH_SIZE = 1024;
+	private static final int STRIPES = 64; // locks of the entries changed
+
+	private static final ThreadFactory SCAN_THREADS = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar-scanner");
+			t.setDaemon(true);
+			return t;
+		}
+	};
 
 	protected AbstractTarFileSystem(AbstractTarFileSystemProvider provider,
-			Path tfpath, Map<String, ?> env) throws IOException {
+			Path tfpath, Map<String, ?> env, TarCodec codec)
+			throws IOException {
 		// configurable env setup
-		createNew = "true".equals(env.get("create"));
+		// a read only file system never creates its archive
+		frozen = TarIndexFile.isReadOnly(env);
+		createNew = "true".equals(env.get("create")) && !frozen;
+		lazy = !"false".equals(env.get("lazy"));
+		mmap = !"false".equals(env.get("mmap"));
+		spillThreshold = env.containsKey("spill.threshold") ? Long
+				.parseLong(env.get("spill.threshold").toString())
+				: DEFAULT_SPILL_THRESHOLD;
 		defaultDir = env.containsKey("default.dir") ? (String) env
 				.get("default.dir") : "/";
-		entriesToData = new HashMap<>();
+		indexPath = TarIndexFile.isIndexed(env) ? TarIndexFile.resolve(tfpath,
+				env, TarIndex.SUFFIX) : null;
+		background = "true".equals(env.get("index.background"));
+		scanThreads = env.containsKey("scan.threads") ? Integer.parseInt(env
+				.get("scan.threads").toString()) : Runtime.getRuntime()
+				.availableProcessors();
+		entriesToData = new LinkedHashMap<>();
+		inodes = new ConcurrentHashMap<>();
 		if (defaultDir.charAt(0) != '/') {
 			throw new IllegalArgumentException("default dir should be absolute");
 		}
 		this.provider = provider;
+		this.codec = codec;
 		this.tfpath = tfpath;
 		if (Files.notExists(tfpath)) {
 			if (!createNew) {
@@ -71,50 +156,547 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 		}
 		// sm and existence check
 		tfpath.getFileSystem().provider().checkAccess(tfpath, AccessMode.READ);
-		if (!Files.isWritable(tfpath)) {
+		if (frozen || !Files.isWritable(tfpath)) {
 			readOnly = true;
 		}
 		defaultdir = new TarPath(this, defaultDir.getBytes());
 		outputStreams = new ArrayList<>();
-		mapEntries();
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		indexing = new FutureTask<Void>(new Callable<Void>() {
+
+			@Override
+			public Void call() throws IOException {
+				mapEntries();
+				return null;
+			}
+		}) {
+
+			@Override
+			protected void done() {
+				synchronized (indexMonitor) {
+					indexMonitor.notifyAll();
+				}
+			}
+		};
+		if (background) {
+			indexer = new Thread(indexing, "tar-indexer " + tfpath);
+			indexer.setDaemon(true);
+			indexer.start();
+		} else {
+			indexer = null;
+			indexing.run();
+			awaitIndex();
+		}
 	}
 
-	protected abstract byte[] readFile(Path path) throws IOException;
+	/**
+	 * Returns the future of the indexing of the archive, it is already done
+	 * unless the file system was opened with <code>index.background</code>.
+	 * Entries are looked up while it runs, waiting until they are found.
+	 * Listing directories and changing the file system wait for it to
+	 * complete.
+	 */
+	public Future<Void> getIndexing() {
+		return indexing;
+	}
 
-	private void mapEntries() throws IOException {
+	/*
+	 * Waits for the archive to be indexed, failing like the indexing did.
+	 */
+	private void awaitIndex() throws IOException {
+		try {
+			indexing.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (CancellationException e) {
+			throw new ClosedFileSystemException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/*
+	 * Waits while the archive is indexed in the background, until the entry
+	 * of the path is found or every entry is. Called without holding the
+	 * lock, which the indexing takes to add entries.
+	 */
+	private void awaitEntry(byte[] path) {
+		if (indexing.isDone()) {
+			return;
+		}
+		IndexNode key = IndexNode.keyOf(path);
+		while (true) {
+			long count;
+			synchronized (indexMonitor) {
+				count = indexedCount;
+			}
+			if (isIndexed(key)) {
+				return;
+			}
+			synchronized (indexMonitor) {
+				while (count == indexedCount && !indexing.isDone()) {
+					try {
+						indexMonitor.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (indexing.isDone()) {
+					return;
+				}
+			}
+		}
+	}
+
+	private boolean isIndexed(IndexNode key) {
+		if (immutable) {
+			IndexNode inode = inodes.get(key);
+			return inode != null && !inode.pseudo;
+		}
+		long stamp = lock.tryOptimisticRead();
+		IndexNode inode = inodes.get(key);
+		boolean indexed = inode != null && !inode.pseudo;
+		if (lock.validate(stamp)) {
+			return indexed;
+		}
 		beginRead();
+		try {
+			inode = inodes.get(key);
+			return inode != null && !inode.pseudo;
+		} finally {
+			endRead();
+		}
+	}
+
+	/*
+	 * Adds an entry read from the archive, waking up the lookups waiting for
+	 * it.
+	 */
+	private void putIndexedEntry(TarEntry te, byte[] data) {
+		beginWrite();
+		try {
+			putEntry(te, data);
+		} finally {
+			endWrite();
+		}
+		signalIndexed();
+	}
+
+	private void putIndexedRow(TarHeaderScanner scanner) {
+		beginWrite();
+		try {
+			putRow(scanner.addTo(table));
+		} finally {
+			endWrite();
+		}
+		signalIndexed();
+	}
+
+	private void putIndexedRows(TarEntryTable rows, int from, int to) {
+		for (int batch = from; batch < to; batch += INDEX_BATCH_SIZE) {
+			beginWrite();
+			try {
+				for (int row = batch; row < Math.min(to, batch
+						+ INDEX_BATCH_SIZE); row++) {
+					putRow(table.add(rows, row));
+				}
+			} finally {
+				endWrite();
+			}
+			signalIndexed();
+		}
+	}
+
+	private void signalIndexed() {
+		synchronized (indexMonitor) {
+			indexedCount++;
+			indexMonitor.notifyAll();
+		}
+	}
+
+	private void mapEntries() throws IOException {
+		beginWrite();
 		try {
 			entriesToData.clear();
-			byte[] tfByteArray;
-			if (Files.notExists(tfpath)) {
-				tfByteArray = new byte[TarConstants.DATA_BLOCK];
+			table = new TarEntryTable();
+			detachedRows.clear();
+			inodes.clear();
+			pseudoModTime = (Files.exists(tfpath) ? Files.getLastModifiedTime(
+					tfpath).toMillis() : System.currentTimeMillis()) / 1000;
+			root = new IndexNode(new byte[0]);
+			root.entry = pseudoEntry(root.name);
+			root.pseudo = true;
+			inodes.put(root, root);
+			removedEntries.clear();
+			archiveEnd = 0;
+			created = Files.notExists(tfpath);
+		} finally {
+			endWrite();
+		}
+		if (!created) {
+			readEntries();
+		}
+		beginWrite();
+		try {
+			// entries shadowed by a later one with the same name aren't
+			// changes
+			removedEntries.clear();
+			table.indexed();
+			indexComplete = true;
+		} finally {
+			endWrite();
+		}
+		immutable = frozen;
+	}
+
+	/*
+	 * Indexes the entries of the archive, the lookups find them as they are
+	 * added.
+	 */
+	private void readEntries() throws IOException {
+		if (lazy && codec.hasCapability(TarCodec.Capability.SEEKABLE)) {
+			archiveChannel = codec.newChannel(tfpath);
+			if (archiveChannel != null) {
+				if (mmap && archiveChannel instanceof FileChannel) {
+					mappedArchive = new TarMappedArchive(
+							(FileChannel) archiveChannel);
+				}
+				if (!loadIndex()) {
+					int ranges = 1;
+					if (archiveChannel instanceof FileChannel) {
+						ranges = (int) Math.min(scanThreads,
+								archiveChannel.size() / MIN_SCAN_RANGE);
+					}
+					if (ranges > 1) {
+						scanRanges((FileChannel) archiveChannel, ranges);
+					} else {
+						scanHeaders(archiveChannel, false);
+					}
+					storeIndex();
+				}
+				return;
+			}
+		}
+		// read in a single pass, the data of each entry with its header
+		try (SeekableByteChannel archive = new TarStreamChannel(
+				codec.newInputStream(tfpath))) {
+			scanHeaders(archive, true);
+		}
+	}
+
+	/*
+	 * Reads only the header blocks of the archive, recording where the data
+	 * of each entry starts instead of copying it unless asked to.
+	 */
+	private void scanHeaders(SeekableByteChannel archive, boolean readEntries)
+			throws IOException {
+		TarHeaderScanner scanner = newScanner(archive);
+		// read up to the end of archive blocks, the size of a compressed
+		// archive isn't known before it is read
+		while (scanner.next() == TarHeaderScanner.ENTRY) {
+			if (indexing.isCancelled()) {
+				throw new ClosedFileSystemException();
+			}
+			if (readEntries) {
+				TarEntry te = scanner.entry();
+				te.file = readData(archive, te.dataOffset, te.getSize());
+				putIndexedEntry(te, te.file);
 			} else {
-				tfByteArray = readFile(tfpath);
-			}
-			int numOfBlocks = (int) Math.ceil((double) tfByteArray.length
-					/ TarConstants.DATA_BLOCK) - 1; // discard the EOF block
-			for (int i = 0; i < numOfBlocks; i++) {
-				byte[] block = Arrays.copyOfRange(tfByteArray, i
-						* TarConstants.DATA_BLOCK, i * TarConstants.DATA_BLOCK
-						+ TarConstants.DATA_BLOCK);
-				byte[] magic = Arrays.copyOfRange(block, TarConstants.MAGICOFF,
-						TarConstants.MAGICOFF + TarConstants.MAGICLEN - 1);
-				if (new String(magic).equals("ustar")) {
-					TarEntry te = new TarEntry(block);
-					byte[] data = Arrays.copyOfRange(tfByteArray, (i + 1)
-							* TarConstants.DATA_BLOCK, (int) ((i + 1)
-							* TarConstants.DATA_BLOCK + te.getSize()));
-					te.file = data;
-					entriesToData.put(te, data);
-					int blocksNeeded = (int) Math.ceil((double) te.getSize()
-							/ TarConstants.DATA_BLOCK);
-					for (int j = 0; j < blocksNeeded; j++) {
-						i++;
+				putIndexedRow(scanner);
+			}
+		}
+		archiveEnd = scanner.archiveEnd();
+	}
+
+	private TarHeaderScanner newScanner(SeekableByteChannel archive) {
+		return new TarHeaderScanner(archive,
+				archive == archiveChannel ? mappedArchive : null,
+				tfpath.toString());
+	}
+
+	/*
+	 * Scans a large archive in ranges on several threads. Once the walk from
+	 * the start meets an entry the walk of a range went through, the rows of
+	 * that walk are taken as they are.
+	 */
+	private void scanRanges(FileChannel archive, int ranges)
+			throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(ranges - 1,
+				SCAN_THREADS);
+		List<RangeWalk> walks = new ArrayList<>();
+		List<Future<RangeWalk>> futures = new ArrayList<>();
+		try {
+			long size = archive.size();
+			for (int i = 1; i < ranges; i++) {
+				RangeWalk walk = new RangeWalk(archive,
+						blockOffset(size * i / ranges),
+						blockOffset(size * (i + 1) / ranges));
+				walks.add(walk);
+				futures.add(executor.submit(walk));
+			}
+			TarHeaderScanner scanner = newScanner(archive);
+			int i = 0; // walk of the range the entry is in, or the next one
+			while (scanner.next() == TarHeaderScanner.ENTRY) {
+				if (indexing.isCancelled()) {
+					throw new ClosedFileSystemException();
+				}
+				long offset = scanner.headerOffset();
+				while (i < walks.size() && offset >= walks.get(i).end) {
+					walks.get(i++).stopped = true;
+				}
+				RangeWalk walk = i < walks.size()
+						&& offset >= walks.get(i).start ? walkOf(futures
+						.get(i)) : null;
+				int row = walk != null ? walk.rows.find(offset) : -1;
+				if (row < 0) {
+					putIndexedRow(scanner);
+					continue;
+				}
+				int end = walk.endAfter(row);
+				if (end >= 0 && walk.endErrors.get(end) != null) {
+					throw walk.endErrors.get(end);
+				}
+				putIndexedRows(walk.rows, row, end < 0 ? walk.rows.size()
+						: walk.endRows.get(end));
+				if (end >= 0) {
+					archiveEnd = walk.endOffsets.get(end);
+					return;
+				}
+				scanner.seek(walk.exit);
+			}
+			archiveEnd = scanner.archiveEnd();
+		} finally {
+			// not interrupted, that would close the archive channel
+			for (RangeWalk walk : walks) {
+				walk.stopped = true;
+			}
+			executor.shutdown();
+		}
+	}
+
+	private static long blockOffset(long offset) {
+		return offset / TarConstants.HEADER_BLOCK * TarConstants.HEADER_BLOCK;
+	}
+
+	private static RangeWalk walkOf(Future<RangeWalk> future) {
+		if (!future.isDone()) {
+			return null;
+		}
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Walk of the headers of a range, up to the first entry past it. The ends
+	 * of the archive and the corrupt headers met are recorded, not followed.
+	 */
+	private class RangeWalk implements Callable<RangeWalk> {
+
+		final FileChannel archive;
+		final long start;
+		final long end;
+		final TarEntryTable rows = new TarEntryTable();
+		final List<Integer> endRows = new ArrayList<>();
+		final List<Long> endOffsets = new ArrayList<>();
+		final List<IOException> endErrors = new ArrayList<>();
+		long exit = -1; // headers of the first entry past the range
+		volatile boolean stopped;
+
+		RangeWalk(FileChannel archive, long start, long end) {
+			this.archive = archive;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public RangeWalk call() throws IOException {
+			TarHeaderScanner scanner = newScanner(archive);
+			scanner.seek(start);
+			while (true) {
+				if (stopped || indexing.isCancelled()) {
+					throw new CancellationException();
+				}
+				int next;
+				try {
+					next = scanner.next();
+				} catch (IOException e) {
+					addEnd(-1, e);
+					scanner.seek(scanner.position());
+					continue;
+				}
+				if (next != TarHeaderScanner.ENTRY) {
+					addEnd(scanner.archiveEnd(), null);
+					if (next == TarHeaderScanner.EOF) {
+						return this;
 					}
+					scanner.seek(scanner.position());
+					continue;
+				}
+				if (scanner.headerOffset() >= end) {
+					exit = scanner.headerOffset();
+					return this;
+				}
+				scanner.addTo(rows);
+			}
+		}
+
+		private void addEnd(long offset, IOException error) {
+			// a walk through the rows ends at the first end after them
+			if (endRows.isEmpty()
+					|| endRows.get(endRows.size() - 1) < rows.size()) {
+				endRows.add(rows.size());
+				endOffsets.add(offset);
+				endErrors.add(error);
+			}
+		}
+
+		int endAfter(int row) {
+			for (int i = 0; i < endRows.size(); i++) {
+				if (endRows.get(i) > row) {
+					return i;
 				}
 			}
+			return -1;
+		}
+	}
+
+	private boolean loadIndex() throws IOException {
+		if (indexPath == null) {
+			return false;
+		}
+		TarIndex index = TarIndex.load(indexPath, tfpath);
+		if (index == null) {
+			return false;
+		}
+		beginWrite();
+		try {
+			table = index.table();
 		} finally {
-			endRead();
+			endWrite();
+		}
+		for (int row = 0; row < table.size(); row++) {
+			if (indexing.isCancelled()) {
+				throw new ClosedFileSystemException();
+			}
+			beginWrite();
+			try {
+				putRow(row);
+			} finally {
+				endWrite();
+			}
+			signalIndexed();
+		}
+		archiveEnd = index.archiveEnd();
+		return true;
+	}
+
+	private void storeIndex() {
+		if (indexPath == null || frozen) {
+			return;
+		}
+		try {
+			TarIndex.store(indexPath, tfpath, table, archiveEnd);
+		} catch (IOException e) {
+			// the archive is scanned again when it is reopened
+		}
+	}
+
+	private byte[] readEntryData(TarEntry te) throws IOException {
+		if (mappedArchive != null) {
+			ByteBuffer data = allocateData(te.getSize());
+			for (ByteBuffer slice : mappedArchive.slices(te.dataOffset,
+					te.getSize())) {
+				data.put(slice);
+			}
+			return data.array();
+		}
+		return readData(archiveChannel, te.dataOffset, te.getSize());
+	}
+
+	// the whole header of a row, with its pax extended header
+	private TarEntry readRowEntry(long headerOffset, long dataOffset)
+			throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(TarConstants.HEADER_BLOCK);
+		Map<String, String> paxHeaders = null;
+		long pos = headerOffset;
+		while (true) {
+			block.clear();
+			readFully(archiveChannel, block, pos);
+			if (block.hasRemaining()) {
+				throw new IOException("Unexpected end of archive "
+						+ tfpath.toString());
+			}
+			pos += TarConstants.HEADER_BLOCK;
+			TarEntry te = new TarEntry(block.array());
+			if (te.getHeader().linkFlag != TarHeader.LF_PAX_EXTENDED) {
+				if (paxHeaders != null) {
+					te.applyPaxHeaders(paxHeaders);
+				}
+				te.headerOffset = headerOffset;
+				te.dataOffset = dataOffset;
+				te.dirty = false;
+				return te;
+			}
+			paxHeaders = TarHeader.parsePaxHeaders(readData(archiveChannel,
+					pos, te.getSize()));
+			pos += (te.getSize() + TarConstants.DATA_BLOCK - 1)
+					/ TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+		}
+	}
+
+	private byte[] readData(SeekableByteChannel archive, long offset,
+			long size) throws IOException {
+		ByteBuffer data = allocateData(size);
+		readFully(archive, data, offset);
+		if (data.hasRemaining()) {
+			throw new IOException("Unexpected end of archive "
+					+ tfpath.toString());
+		}
+		return data.array();
+	}
+
+	private static ByteBuffer allocateData(long size) throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Entry of " + size
+					+ " bytes is too large to be read in memory");
+		}
+		return ByteBuffer.allocate((int) size);
+	}
+
+	// a file channel is read at the position, without moving it
+	static void readFully(SeekableByteChannel archive, ByteBuffer dst,
+			long position) throws IOException {
+		long pos = position;
+		while (dst.hasRemaining()) {
+			int read;
+			if (archive instanceof FileChannel) {
+				read = ((FileChannel) archive).read(dst, pos);
+			} else {
+				synchronized (archive) {
+					archive.position(pos);
+					read = archive.read(dst);
+				}
+			}
+			if (read < 0) {
+				break;
+			}
+			pos += read;
 		}
 	}
 
@@ -251,123 +833,509 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 		} finally {
 			endWrite();
 		}
+		// an archive indexed in the background stops being read, it is
+		// only written back once indexed completely
+		if (indexing.cancel(false)) {
+			try {
+				indexer.join();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		// the streams take the lock to add their entries as they close
+		List<OutputStream> streams;
 		beginWrite();
 		try {
-			for (OutputStream os : outputStreams) {
-				os.close();
-			}
+			streams = new ArrayList<>(outputStreams);
 		} finally {
 			endWrite();
 		}
+		for (OutputStream os : streams) {
+			os.close();
+		}
 		beginWrite();
 		try {
-			if (Files.notExists(tfpath)) {
-				Files.createDirectories(tfpath.getParent());
-				Files.createFile(tfpath);
+			// an archive that was only read is left as it is, and one opened
+			// read only is never written
+			if (!frozen && indexComplete && isModified()) {
+				if (!appendArchive()) {
+					writeArchive();
+				}
+			} else {
+				closeArchiveChannel();
+			}
+			for (TarEntryBuffer buffer : entryBuffers) {
+				buffer.release();
 			}
-			writeFile(getTarBytes(), tfpath);
 		} finally {
 			endWrite();
 		}
 		provider.removeFileSystem(tfpath, this);
 	}
 
-	private byte[] getTarBytes() {
-		int bytesNeeded = 0;
-		for (Entry<TarEntry, byte[]> entry : entriesToData.entrySet()) {
-			bytesNeeded += TarConstants.HEADER_BLOCK;
-			int dataBlocks = (int) Math.ceil((double) entry.getKey().getSize()
-					/ TarConstants.DATA_BLOCK);
-			bytesNeeded += TarConstants.DATA_BLOCK * dataBlocks;
+	/*
+	 * Writes the dirty entries over the EOF blocks of the archive, the entries
+	 * that were replaced stay in the archive and are shadowed by the new ones
+	 * when it is read again. Deleted entries can't be expressed this way, the
+	 * archive is then rewritten.
+	 */
+	private boolean appendArchive() throws IOException {
+		if (created || !codec.hasCapability(TarCodec.Capability.APPEND)
+				|| !canAppend()) {
+			return false;
+		}
+		FileChannel channel = codec.newAppendChannel(tfpath);
+		List<TarEntry> appended = new ArrayList<>();
+		for (int row = table.nextRow(0); row < table.size(); row = table
+				.nextRow(row + 1)) {
+			TarEntry te = detachedRows.get(row);
+			if (te != null && te.dirty) {
+				appended.add(te);
+			}
+		}
+		for (TarEntry te : entriesToData.keySet()) {
+			if (te.dirty) {
+				appended.add(te);
+			}
+		}
+		try (FileChannel ch = channel) {
+			ch.position(archiveEnd);
+			OutputStream os = new BufferedOutputStream(
+					Channels.newOutputStream(ch), COPY_BUFFER_SIZE);
+			writeEntries(os, ch, false, appended);
+			os.flush();
+			// not truncated, streams may still read the mapped archive: the
+			// rest of the old end is zeroed instead
+			writeZeros(os, ch.size() - ch.position(),
+					new byte[TarConstants.DATA_BLOCK]);
+			os.flush();
+		}
+		closeArchiveChannel();
+		return true;
+	}
+
+	private boolean canAppend() {
+		for (TarEntry te : removedEntries) {
+			if (!isReplaced(te.getName().getBytes(StandardCharsets.ISO_8859_1))) {
+				return false;
+			}
+		}
+		for (int row = table.nextChange(0); row >= 0; row = table
+				.nextChange(row + 1)) {
+			if (!isReplaced(table.name(row))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isReplaced(byte[] name) {
+		IndexNode inode = inodes.get(IndexNode.keyOf(name));
+		return inode != null && !inode.pseudo && inode.entry != null
+				&& inode.entry.dirty;
+	}
+
+	private void writeArchive() throws IOException {
+		if (Files.notExists(tfpath)) {
+			Files.createDirectories(tfpath.getParent());
+			Files.createFile(tfpath);
 		}
-		bytesNeeded += TarConstants.DATA_BLOCK;
-		byte[] tar = new byte[bytesNeeded];
-		int offset = 0;
-		for (Entry<TarEntry, byte[]> entry : entriesToData.entrySet()) {
-			byte[] header = new byte[TarConstants.HEADER_BLOCK];
-			entry.getKey().writeEntryHeader(header);
-			for (int i = 0; i < header.length; i++) {
-				tar[offset + i] = header[i];
+		// lazily read entries still need the archive while it is written
+		Path tmpPath = Files.createTempFile(tfpath.toAbsolutePath()
+				.getParent(), tfpath.getFileName().toString(), ".tmp");
+		try {
+			FileChannel out = null;
+			OutputStream stream;
+			if (codec.hasCapability(TarCodec.Capability.APPEND)) {
+				out = codec.newOutputChannel(tmpPath);
+				stream = Channels.newOutputStream(out);
+			} else {
+				stream = codec.newOutputStream(tmpPath);
 			}
-			offset += TarConstants.HEADER_BLOCK;
-			int dataSize = (int) Math.ceil((double) entry.getKey().getSize()
-					/ TarConstants.DATA_BLOCK);
-			for (int i = 0; i < entry.getValue().length; i++) {
-				tar[offset + i] = entry.getValue()[i];
+			// a parallel codec buffers what it compresses already
+			try (OutputStream os = codec
+					.hasCapability(TarCodec.Capability.PARALLEL) ? stream
+					: new BufferedOutputStream(stream, COPY_BUFFER_SIZE)) {
+				writeEntries(os, out, true, entriesToData.keySet());
 			}
-			offset += dataSize * TarConstants.DATA_BLOCK;
+			copyPermissions(tfpath, tmpPath);
+			closeArchiveChannel();
+			Files.move(tmpPath, tfpath, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmpPath);
 		}
-		return tar;
 	}
 
-	protected abstract void writeFile(byte[] tarBytes, Path outPath)
-			throws IOException;
+	private void closeArchiveChannel() throws IOException {
+		if (archiveChannel != null) {
+			mappedArchive = null;
+			archiveChannel.close();
+		}
+	}
 
+	/*
+	 * Streams the entries one at a time, the memory needed to write the
+	 * archive doesn't depend on its size. Unchanged entries are copied from
+	 * the archive as they are, headers included, straight to the channel
+	 * under the stream when there is one.
+	 */
+	private void writeEntries(OutputStream os, FileChannel out, boolean rows,
+			Iterable<TarEntry> entries) throws IOException {
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		for (int row = rows ? table.nextRow(0) : table.size(); row < table
+				.size(); row = table.nextRow(row + 1)) {
+			TarEntry te = detachedRows.get(row);
+			if (te != null) {
+				writeEntry(te, os, out, header, buffer);
+				continue;
+			}
+			long blocks = (table.size(row) + TarConstants.DATA_BLOCK - 1)
+					/ TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+			copyArchiveData(table.headerOffset(row), table.dataOffset(row)
+					- table.headerOffset(row) + blocks, os, out, buffer);
+		}
+		for (TarEntry te : entries) {
+			writeEntry(te, os, out, header, buffer);
+		}
+		// two zero blocks end the archive
+		writeZeros(os, TarConstants.EOF_BLOCK, buffer);
+	}
+
+	private void writeEntry(TarEntry te, OutputStream os, FileChannel out,
+			byte[] header, byte[] buffer) throws IOException {
+		long size = te.getSize();
+		long blocks = (size + TarConstants.DATA_BLOCK - 1)
+				/ TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+		if (!te.dirty && isLazyEntry(te)) {
+			copyArchiveData(te.headerOffset, te.dataOffset
+					- te.headerOffset + blocks, os, out, buffer);
+			return;
+		}
+		writePaxHeader(te, os, header, buffer);
+		te.writeEntryHeader(header);
+		os.write(header);
+		long written;
+		if (isLazyEntry(te)) {
+			written = copyArchiveData(te.dataOffset, size, os, out,
+					buffer);
+		} else if (te.buffer != null) {
+			written = te.buffer.copyTo(os, out, buffer);
+		} else {
+			// written through a byte channel the entry data may be newer
+			written = Math.min(te.file.length, size);
+			os.write(te.file, 0, (int) written);
+		}
+		writeZeros(os, blocks - written, buffer);
+	}
+
+	private void writePaxHeader(TarEntry te, OutputStream os, byte[] header,
+			byte[] buffer) throws IOException {
+		Map<String, String> paxHeaders = te.getPaxHeaders();
+		if (paxHeaders == null) {
+			return;
+		}
+		byte[] records = TarHeader.formatPaxHeaders(paxHeaders);
+		long modTime = te.getHeader().modTime;
+		new TarEntry(TarHeader.createPaxHeader(te.getName(), records.length,
+				paxHeaders.containsKey("mtime") ? 0 : modTime))
+				.writeEntryHeader(header);
+		os.write(header);
+		os.write(records);
+		writeZeros(os, (TarConstants.DATA_BLOCK - records.length
+				% TarConstants.DATA_BLOCK) % TarConstants.DATA_BLOCK, buffer);
+	}
+
+	private long copyArchiveData(long offset, long length, OutputStream os,
+			FileChannel out, byte[] buffer) throws IOException {
+		long written = 0;
+		if (out != null && archiveChannel instanceof FileChannel) {
+			// what was buffered goes first, the archive is then transferred
+			os.flush();
+			while (written < length) {
+				long n = ((FileChannel) archiveChannel).transferTo(offset + written, length
+						- written, out);
+				if (n <= 0) {
+					throw new IOException("Unexpected end of archive "
+							+ tfpath.toString());
+				}
+				written += n;
+			}
+			return written;
+		}
+		if (mappedArchive != null) {
+			for (ByteBuffer slice : mappedArchive.slices(offset, length)) {
+				while (slice.hasRemaining()) {
+					int n = Math.min(buffer.length, slice.remaining());
+					slice.get(buffer, 0, n);
+					os.write(buffer, 0, n);
+					written += n;
+				}
+			}
+			return written;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		while (written < length) {
+			bb.clear();
+			bb.limit((int) Math.min(buffer.length, length - written));
+			readFully(archiveChannel, bb, offset + written);
+			if (bb.position() == 0) {
+				throw new IOException("Unexpected end of archive "
+						+ tfpath.toString());
+			}
+			os.write(buffer, 0, bb.position());
+			written += bb.position();
+		}
+		return written;
+	}
+
+	private static void writeZeros(OutputStream os, long count, byte[] buffer)
+			throws IOException {
+		Arrays.fill(buffer, (byte) 0);
+		long remaining = count;
+		while (remaining > 0) {
+			int n = (int) Math.min(buffer.length, remaining);
+			os.write(buffer, 0, n);
+			remaining -= n;
+		}
+	}
+
+	private static void copyPermissions(Path from, Path to) {
+		try {
+			Files.setPosixFilePermissions(to,
+					Files.getPosixFilePermissions(from));
+		} catch (UnsupportedOperationException | IOException e) {
+			// keep the default permissions of the temporary file
+		}
+	}
+
+	// not reentrant
 	private final void beginWrite() {
-		rwlock.writeLock().lock();
+		lock.asWriteLock().lock();
 	}
 
 	private final void endWrite() {
-		rwlock.writeLock().unlock();
+		lock.asWriteLock().unlock();
 	}
 
 	private final void beginRead() {
-		rwlock.readLock().lock();
+		lock.asReadLock().lock();
 	}
 
 	private final void endRead() {
-		rwlock.readLock().unlock();
+		lock.asReadLock().unlock();
+	}
+
+	// taken before the lock of the file system
+	private Lock stripeOf(IndexNode key) {
+		return stripes[(key.hashCode() & 0x7fffffff) % stripes.length];
 	}
 
 	private volatile boolean isOpen = true;
 
-	private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
+	// guards the index and the tree, the lookups read them optimistically
+	// and only take the read lock when a write got in their way
+	private final StampedLock lock = new StampedLock();
+	private final Lock[] stripes = new Lock[STRIPES];
 
 	@Override
 	protected void finalize() throws IOException {
 		close();
 	}
 
-	public Iterator<Path> iteratorOf(byte[] path,
-			java.nio.file.DirectoryStream.Filter<? super Path> filter)
-			throws IOException {
-		Collection<Path> subPaths = new ArrayList<>();
-		String pathString = new String(path);
-		for (TarEntry te : entriesToData.keySet()) {
-			String name = te.getName();
-			if (name.startsWith(pathString) && !name.equals(pathString)) {
-				subPaths.add(getPath(name));
+	/**
+	 * Returns the direct children of the directory, resolved against it.
+	 */
+	public Iterator<Path> iteratorOf(final TarPath dir) throws IOException {
+		awaitIndex();
+		final List<IndexNode> children = new ArrayList<>();
+		if (immutable) {
+			addChildren(dir, children);
+		} else {
+			beginRead();
+			try {
+				addChildren(dir, children);
+			} finally {
+				endRead();
 			}
 		}
-		return subPaths.iterator();
+		final Iterator<IndexNode> itr = children.iterator();
+		return new Iterator<Path>() {
+			@Override
+			public boolean hasNext() {
+				return itr.hasNext();
+			}
+
+			@Override
+			public Path next() {
+				return dir.resolve(new TarPath(AbstractTarFileSystem.this,
+						itr.next().fileName(), true));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void addChildren(TarPath dir, List<IndexNode> children)
+			throws NotDirectoryException {
+		IndexNode inode = inodes.get(IndexNode.keyOf(dir.getResolvedPath()));
+		if (inode == null || !isDir(inode)) {
+			throw new NotDirectoryException(dir.toString());
+		}
+		for (IndexNode child = inode.child; child != null; child = child.sibling) {
+			children.add(child);
+		}
 	}
 
 	public boolean isDirectory(byte[] path) {
-		TarEntry te = getTarEntryFromPath(path);
-		return te.isDirectory();
+		awaitEntry(path);
+		IndexNode key = IndexNode.keyOf(path);
+		if (immutable) {
+			IndexNode inode = inodes.get(key);
+			return inode != null && isDir(inode);
+		}
+		long stamp = lock.tryOptimisticRead();
+		try {
+			IndexNode inode = inodes.get(key);
+			boolean dir = inode != null && isDir(inode);
+			if (lock.validate(stamp)) {
+				return dir;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			if (lock.validate(stamp)) {
+				throw e;
+			}
+			// raced with an append
+		}
+		beginRead();
+		try {
+			IndexNode inode = inodes.get(key);
+			return inode != null && isDir(inode);
+		} finally {
+			endRead();
+		}
+	}
+
+	private boolean isDir(IndexNode inode) {
+		return inode.pseudo || inode.child != null
+				|| (inode.entry != null ? inode.entry.isDirectory() : table
+						.isDirectory(inode.row));
 	}
 
+	/*
+	 * Returns the entry of the path, the entry of a row is made from the
+	 * table on each call.
+	 */
 	private TarEntry getTarEntryFromPath(byte[] path) {
-		TarEntry te = null;
-		String name = new String(path);
+		IndexNode key = IndexNode.keyOf(path);
+		if (immutable) {
+			return entryOf(inodes.get(key));
+		}
+		long stamp = lock.tryOptimisticRead();
+		try {
+			TarEntry te = entryOf(inodes.get(key));
+			if (lock.validate(stamp)) {
+				return te;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			if (lock.validate(stamp)) {
+				throw e;
+			}
+			// raced with an append
+		}
 		beginRead();
 		try {
-			for (TarEntry e : entriesToData.keySet()) {
-				if (e.getName().equals(name)) {
-					te = e;
-				}
+			return entryOf(inodes.get(key));
+		} finally {
+			endRead();
+		}
+	}
+
+	private TarEntry entryOf(IndexNode inode) {
+		if (inode == null) {
+			return null;
+		}
+		return inode.entry != null ? inode.entry : table.entry(inode.row);
+	}
+
+	private TarEntry getTarEntryWithHeader(byte[] path) throws IOException {
+		long headerOffset;
+		long dataOffset;
+		beginRead();
+		try {
+			IndexNode inode = inodes.get(IndexNode.keyOf(path));
+			if (inode == null || inode.entry != null) {
+				return inode != null ? inode.entry : null;
 			}
-		} catch (NullPointerException e) {
-			e.printStackTrace();
+			headerOffset = table.headerOffset(inode.row);
+			dataOffset = table.dataOffset(inode.row);
 		} finally {
 			endRead();
 		}
-		return te;
+		return readRowEntry(headerOffset, dataOffset);
+	}
+
+	/*
+	 * Returns the entry of the path to change it, called holding its stripe
+	 * lock. The entry of a row is read again and kept in place of the row.
+	 */
+	private TarEntry getTarEntryForUpdate(byte[] path) throws IOException {
+		IndexNode key = IndexNode.keyOf(path);
+		IndexNode inode;
+		int row;
+		long headerOffset;
+		long dataOffset;
+		beginRead();
+		try {
+			inode = inodes.get(key);
+			if (inode == null || inode.entry != null) {
+				return inode != null ? inode.entry : null;
+			}
+			row = inode.row;
+			headerOffset = table.headerOffset(row);
+			dataOffset = table.dataOffset(row);
+		} finally {
+			endRead();
+		}
+		TarEntry te = readRowEntry(headerOffset, dataOffset);
+		beginWrite();
+		try {
+			if (inodes.get(key) != inode) {
+				return entryOf(inodes.get(key));
+			}
+			if (inode.entry == null && inode.row == row) {
+				inode.entry = te;
+				detachedRows.put(row, te);
+			}
+			return inode.entry;
+		} finally {
+			endWrite();
+		}
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new ReadOnlyFileSystemException();
+		}
+	}
+
+	/*
+	 * Entry names are kept byte per char, so they convert to and from the
+	 * resolved path bytes without depending on the default charset.
+	 */
+	private static String toEntryName(byte[] resolvedPath) {
+		return new String(resolvedPath, StandardCharsets.ISO_8859_1);
 	}
 
-	public void createDirectory(byte[] resolvedPath, FileAttribute<?>[] attrs) {
-		TarHeader th = TarHeader.createHeader(new String(resolvedPath), 0,
-				System.currentTimeMillis(), true);
+	public void createDirectory(byte[] resolvedPath, FileAttribute<?>[] attrs)
+			throws IOException {
+		checkWritable();
+		awaitIndex();
+		TarHeader th = TarHeader.createHeader(toEntryName(resolvedPath), 0,
+				System.currentTimeMillis() / 1000, true);
 		TarEntry te = new TarEntry(th);
 		addEntry(te, new byte[0]);
 	}
@@ -375,48 +1343,287 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 	private void addEntry(TarEntry te, byte[] data) {
 		beginWrite();
 		try {
-			entriesToData.put(te, data);
+			putEntry(te, data);
 		} finally {
 			endWrite();
 		}
 	}
 
-	public InputStream newInputStream(byte[] resolvedPath) {
-		byte[] data = null;
-		beginRead();
+	/*
+	 * Indexes the entry by its name, an entry already indexed under the same
+	 * name is replaced like tar does when extracting.
+	 */
+	private void putEntry(TarEntry te, byte[] data) {
+		if (data != null) {
+			te.file = data;
+		}
+		IndexNode inode = nodeOf(te.getName().getBytes(
+				StandardCharsets.ISO_8859_1));
+		if (inode.row >= 0 && inode.entry == te) {
+			// the entry of a row stays in place of it
+			return;
+		}
+		if (!inode.pseudo && inode.entry != te) {
+			removeNodeEntry(inode);
+		}
+		inode.entry = te;
+		inode.pseudo = false;
+		entriesToData.put(te, data);
+	}
+
+	private void putRow(int row) {
+		IndexNode inode = nodeOf(table.name(row));
+		if (!inode.pseudo) {
+			removeNodeEntry(inode);
+		}
+		inode.row = row;
+		inode.entry = null;
+		inode.pseudo = false;
+	}
+
+	private IndexNode nodeOf(byte[] name) {
+		IndexNode key = IndexNode.keyOf(name);
+		IndexNode inode = inodes.get(key);
+		if (inode == null) {
+			inode = key;
+			inodes.put(inode, inode);
+			addToTree(inode);
+		}
+		return inode;
+	}
+
+	private void removeNodeEntry(IndexNode inode) {
+		if (inode.row >= 0) {
+			table.remove(inode.row);
+			detachedRows.remove(inode.row);
+			inode.row = -1;
+		} else if (inode.entry != null) {
+			removeEntry(inode.entry);
+		}
+		inode.entry = null;
+	}
+
+	private void removeEntry(TarEntry te) {
+		entriesToData.remove(te);
+		if (te.headerOffset >= 0) {
+			removedEntries.add(te);
+		}
+	}
+
+	/*
+	 * Tells whether the archive differs from the one that was opened, it is
+	 * only written back on close when it does.
+	 */
+	private boolean isModified() {
+		if (created || !removedEntries.isEmpty() || table.nextChange(0) >= 0) {
+			return true;
+		}
+		for (TarEntry te : detachedRows.values()) {
+			if (te.dirty) {
+				return true;
+			}
+		}
+		for (TarEntry te : entriesToData.keySet()) {
+			if (te.dirty) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Links the node to its parent directory, creating the parents that have
+	 * no entry of their own in the archive.
+	 */
+	private void addToTree(IndexNode inode) {
+		IndexNode node = inode;
+		while (node != root) {
+			IndexNode parent = inodes.get(IndexNode.keyOf(node.parentName()));
+			boolean exists = parent != null;
+			if (!exists) {
+				parent = new IndexNode(node.parentName());
+				parent.entry = pseudoEntry(parent.name);
+				parent.pseudo = true;
+				inodes.put(parent, parent);
+			}
+			node.parent = parent;
+			node.sibling = parent.child;
+			parent.child = node;
+			if (exists) {
+				break;
+			}
+			node = parent;
+		}
+	}
+
+	private void removeFromTree(IndexNode inode) {
+		IndexNode parent = inode.parent;
+		if (parent.child == inode) {
+			parent.child = inode.sibling;
+		} else {
+			IndexNode node = parent.child;
+			while (node.sibling != inode) {
+				node = node.sibling;
+			}
+			node.sibling = inode.sibling;
+		}
+		inode.parent = null;
+		inode.sibling = null;
+	}
+
+	private TarEntry pseudoEntry(byte[] name) {
+		TarHeader th = new TarHeader();
+		th.name = new StringBuffer(toEntryName(name)).append('/');
+		th.mode = 040755;
+		th.linkFlag = TarHeader.LF_DIR;
+		th.modTime = pseudoModTime;
+		return new TarEntry(th);
+	}
+
+	public InputStream newInputStream(byte[] resolvedPath) throws IOException {
+		awaitEntry(resolvedPath);
+		TarEntry te = getTarEntryFromPath(resolvedPath);
+		if (isLazyEntry(te)) {
+			if (mappedArchive != null) {
+				return new TarBufferInputStream(mappedArchive.slices(
+						te.dataOffset, te.getSize()));
+			}
+			return Channels.newInputStream(new TarEntryChannel(
+					archiveChannel, te.dataOffset, te.getSize()));
+		}
+		if (te != null && te.buffer != null) {
+			return te.buffer.newInputStream();
+		}
+		return new ByteArrayInputStream(getDataBytes(te));
+	}
+
+	private boolean isLazyEntry(TarEntry te) {
+		return te != null && te.file == null && te.buffer == null
+				&& te.dataOffset >= 0;
+	}
+
+	public void deleteFile(byte[] resolvedPath, boolean failIfNotExists)
+			throws IOException {
+		checkWritable();
+		awaitIndex();
+		beginWrite();
 		try {
-			data = getDataBytes(resolvedPath);
+			IndexNode inode = inodes.get(IndexNode.keyOf(resolvedPath));
+			if (inode == null) {
+				if (failIfNotExists) {
+					throw new FileNotFoundException();
+				}
+				return;
+			}
+			removeNode(inode, resolvedPath);
 		} finally {
-			endRead();
+			endWrite();
 		}
-		return new ByteArrayInputStream(data);
 	}
 
-	public void deleteFile(byte[] resolvedPath, boolean failIfNotExists)
-			throws FileNotFoundException {
-		TarEntry te = getTarEntryFromPath(resolvedPath);
-		if (failIfNotExists && te == null) {
-			throw new FileNotFoundException();
+	private void removeNode(IndexNode inode, byte[] resolvedPath)
+			throws IOException {
+		if (inode == root) {
+			throw new IOException("The root directory can't be deleted");
+		}
+		if (inode.child != null) {
+			throw new DirectoryNotEmptyException(toEntryName(resolvedPath));
+		}
+		inodes.remove(inode);
+		removeFromTree(inode);
+		if (!inode.pseudo) {
+			removeNodeEntry(inode);
 		}
-		entriesToData.remove(te);
 	}
 
-	public TarFileAttributes getFileAttributes(byte[] resolvedPath) {
-		return new TarFileAttributes(getTarEntryFromPath(resolvedPath));
+	public TarFileAttributes getFileAttributes(byte[] resolvedPath)
+			throws IOException {
+		awaitEntry(resolvedPath);
+		return new TarFileAttributes(getTarEntryWithHeader(resolvedPath));
 	}
 
 	public void setTimes(byte[] resolvedPath, FileTime mtime, FileTime atime,
-			FileTime ctime) {
-		TarEntry te = getTarEntryFromPath(resolvedPath);
-		te.setModTime(mtime.toMillis());
+			FileTime ctime) throws IOException {
+		checkWritable();
+		awaitIndex();
+		if (mtime == null) {
+			return;
+		}
+		IndexNode key = IndexNode.keyOf(resolvedPath);
+		Lock stripe = stripeOf(key);
+		stripe.lock();
+		try {
+			getTarEntryForUpdate(resolvedPath);
+			beginWrite();
+			try {
+				IndexNode inode = inodes.get(key);
+				if (inode == null) {
+					throw new FileNotFoundException(toEntryName(resolvedPath));
+				}
+				if (inode == root) {
+					throw new IOException(
+							"The root directory has no entry to keep its times");
+				}
+				if (!inode.pseudo) {
+					inode.entry.setModTime(mtime.toMillis());
+					inode.entry.dirty = true;
+					return;
+				}
+				// a pseudo directory gets an entry to keep the time
+				putEntry(new TarEntry(TarHeader.createHeader(toEntryName(
+						resolvedPath), 0, mtime.to(TimeUnit.SECONDS), true)),
+						new byte[0]);
+			} finally {
+				endWrite();
+			}
+		} finally {
+			stripe.unlock();
+		}
 	}
 
 	public SeekableByteChannel newByteChannel(byte[] resolvedPath,
-			Set<? extends OpenOption> options, FileAttribute<?>[] attrs) {
+			Set<? extends OpenOption> options, FileAttribute<?>[] attrs)
+			throws IOException {
 		boolean write = options.contains(StandardOpenOption.WRITE)
 				|| options.contains(StandardOpenOption.APPEND);
-		return new TarSeekableByteChannel(getTarEntryFromPath(resolvedPath),
-				write);
+		if (!write) {
+			awaitEntry(resolvedPath);
+			TarEntry te = getTarEntryFromPath(resolvedPath);
+			if (isLazyEntry(te)) {
+				if (mappedArchive != null) {
+					return new TarEntryChannel(mappedArchive.slices(
+							te.dataOffset, te.getSize()), te.getSize());
+				}
+				return new TarEntryChannel(archiveChannel, te.dataOffset,
+						te.getSize());
+			}
+			if (te != null && te.buffer != null) {
+				return te.buffer.newChannel();
+			}
+			return new TarSeekableByteChannel(te, write);
+		}
+		checkWritable();
+		awaitIndex();
+		Lock stripe = stripeOf(IndexNode.keyOf(resolvedPath));
+		stripe.lock();
+		try {
+			TarEntry te = getTarEntryForUpdate(resolvedPath);
+			if (isLazyEntry(te)) {
+				addEntry(te, getDataBytes(te));
+			} else if (te != null && te.buffer != null) {
+				byte[] data = te.buffer.toByteArray();
+				beginWrite();
+				try {
+					te.buffer = null;
+					putEntry(te, data);
+				} finally {
+					endWrite();
+				}
+			}
+			return new TarSeekableByteChannel(te, write);
+		} finally {
+			stripe.unlock();
+		}
 	}
 
 	public FileChannel newFileChannel(byte[] resolvedPath,
@@ -425,23 +1632,26 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 	}
 
 	public boolean exists(byte[] resolvedPath) {
+		awaitEntry(resolvedPath);
 		return getTarEntryFromPath(resolvedPath) != null;
 	}
 
 	public OutputStream newOutputStream(final byte[] resolvedPath,
 			OpenOption... options) throws IOException {
-		final ArrayList<Byte> bytesWritten = new ArrayList<>();
+		checkWritable();
+		awaitIndex();
 		List<OpenOption> opts = Arrays.asList(options);
+		final TarEntryBuffer data = new TarEntryBuffer(tfpath.toAbsolutePath()
+				.getParent(), tfpath.getFileName().toString(), spillThreshold);
 		if (exists(resolvedPath)) {
-			if (opts.contains(StandardOpenOption.APPEND)) {
-				byte[] data = getDataBytes(resolvedPath);
-				for (byte element : data) {
-					bytesWritten.add(element);
-				}
-			}
 			if (opts.contains(StandardOpenOption.CREATE_NEW)) {
 				throw new FileAlreadyExistsException(new String(resolvedPath));
 			}
+			if (opts.contains(StandardOpenOption.APPEND)) {
+				try (InputStream is = newInputStream(resolvedPath)) {
+					data.write(is);
+				}
+			}
 		} else {
 			if (!opts.contains(StandardOpenOption.CREATE)
 					&& !opts.contains(StandardOpenOption.CREATE_NEW)) {
@@ -450,60 +1660,194 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 		}
 		OutputStream os = new OutputStream() {
 
+			private boolean closed;
+
 			@Override
-			public void write(int b) throws IOException {
-				bytesWritten.add((byte) b);
+			public synchronized void write(int b) throws IOException {
+				ensureOpen();
+				data.write(b);
 			}
 
 			@Override
-			public void close() throws IOException {
-				byte[] data = new byte[bytesWritten.size()];
-				TarEntry e = new TarEntry(TarHeader.createHeader(new String(
-						resolvedPath), bytesWritten.size(), System
-						.currentTimeMillis(), false));
-				for (int i = 0; i < bytesWritten.size(); i++) {
-					data[i] = bytesWritten.get(i);
+			public synchronized void write(byte[] b, int off, int len)
+					throws IOException {
+				ensureOpen();
+				if (off < 0 || len < 0 || len > b.length - off) {
+					throw new IndexOutOfBoundsException();
 				}
-				if (exists(resolvedPath)) {
-					deleteFile(resolvedPath, true);
+				data.write(b, off, len);
+			}
+
+			private void ensureOpen() throws IOException {
+				if (closed) {
+					throw new IOException("Stream closed");
+				}
+			}
+
+			@Override
+			public synchronized void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				data.finish();
+				TarEntry e = new TarEntry(TarHeader.createHeader(toEntryName(
+						resolvedPath), data.size(),
+						System.currentTimeMillis() / 1000, false));
+				e.buffer = data;
+				beginWrite();
+				try {
+					outputStreams.remove(this);
+					entryBuffers.add(data);
+					putEntry(e, null);
+				} finally {
+					endWrite();
 				}
-				addEntry(e, data);
 			}
 		};
-		outputStreams.add(os);
+		beginWrite();
+		try {
+			outputStreams.add(os);
+		} finally {
+			endWrite();
+		}
 		return os;
 	}
 
-	private byte[] getDataBytes(byte[] path) {
-		TarEntry te = getTarEntryFromPath(path);
-		return entriesToData.get(te);
+	private byte[] getDataBytes(TarEntry te) throws IOException {
+		if (isLazyEntry(te)) {
+			return readEntryData(te);
+		}
+		if (te.buffer != null) {
+			return te.buffer.toByteArray();
+		}
+		return te.file;
 	}
 
 	public void copyFile(boolean deleteSourceFile, byte[] srcPath,
 			byte[] targetPath, CopyOption... options) throws IOException {
+		checkWritable();
+		awaitIndex();
 		List<CopyOption> opts = Arrays.asList(options);
 		if (!exists(srcPath)) {
 			throw new FileNotFoundException();
 		}
 		if (exists(targetPath)
 				&& !opts.contains(StandardCopyOption.REPLACE_EXISTING)) {
-			System.out.println("Its me");
 			throw new FileAlreadyExistsException(new String(targetPath));
 		}
 		beginWrite();
 		try {
-			TarEntry srcEntry = getTarEntryFromPath(srcPath);
-			byte[] data = entriesToData.get(srcEntry);
-			if (exists(targetPath)) {
-				deleteFile(targetPath, true);
+			IndexNode source = inodes.get(IndexNode.keyOf(srcPath));
+			if (source == null) {
+				throw new FileNotFoundException();
+			}
+			if (source.equals(IndexNode.keyOf(targetPath))) {
+				return;
+			}
+			if (deleteSourceFile && source.child != null) {
+				// checked before the target is changed
+				throw new DirectoryNotEmptyException(toEntryName(srcPath));
+			}
+			TarEntry srcEntry = entryOf(source);
+			// lazily read data is shared with the source rather than copied
+			byte[] data = srcEntry.file;
+			IndexNode target = inodes.get(IndexNode.keyOf(targetPath));
+			if (target != null) {
+				removeNode(target, targetPath);
 			}
 			TarEntry targetEntry = new TarEntry(TarHeader.createHeader(
-					new String(targetPath), data.length, srcEntry.getModTime()
-							.getTime(), srcEntry.isDirectory()));
-			addEntry(targetEntry, data);
+					toEntryName(targetPath), srcEntry.getSize(), srcEntry
+							.getHeader().modTime, srcEntry.isDirectory()));
+			targetEntry.file = null;
+			targetEntry.dataOffset = srcEntry.dataOffset;
+			targetEntry.buffer = srcEntry.buffer;
+			if (srcEntry.buffer != null && !deleteSourceFile) {
+				// only a moved entry keeps the buffer of its source
+				targetEntry.buffer = srcEntry.buffer.copy();
+				entryBuffers.add(targetEntry.buffer);
+			}
+			putEntry(targetEntry, data);
+			if (deleteSourceFile) {
+				// the data of the target is still read from the source
+				removeNode(source, srcPath);
+			}
 		} finally {
 			endWrite();
 		}
 	}
 
+	// Index node of an entry, keyed on the entry name in the form of the
+	// resolved path: no leading "/" or "./" and no trailing "/". The nodes
+	// also form the directory tree, each one linking its first child and its
+	// next sibling. Directories without an entry in the archive are pseudo
+	// nodes, their entry is never written.
+	static class IndexNode {
+
+		final byte[] name;
+		final int hashcode;
+		TarEntry entry; // null for a row of the table not changed
+		int row = -1; // row of the table, -1 for other entries
+		boolean pseudo;
+		IndexNode parent;
+		IndexNode child;
+		IndexNode sibling;
+
+		IndexNode(byte[] name) {
+			this.name = name;
+			hashcode = Arrays.hashCode(name);
+		}
+
+		static IndexNode keyOf(byte[] resolvedPath) {
+			return new IndexNode(toKey(resolvedPath));
+		}
+
+		private static byte[] toKey(byte[] name) {
+			int from = 0;
+			int to = name.length;
+			while (from < to && name[from] == '/') {
+				from++;
+			}
+			if (to - from > 1 && name[from] == '.' && name[from + 1] == '/') {
+				from += 2;
+			}
+			while (to > from && name[to - 1] == '/') {
+				to--;
+			}
+			if (from == 0 && to == name.length) {
+				return name;
+			}
+			return Arrays.copyOfRange(name, from, to);
+		}
+
+		byte[] parentName() {
+			int end = name.length - 1;
+			while (end >= 0 && name[end] != '/') {
+				end--;
+			}
+			return end <= 0 ? new byte[0] : Arrays.copyOf(name, end);
+		}
+
+		byte[] fileName() {
+			int begin = name.length - 1;
+			while (begin >= 0 && name[begin] != '/') {
+				begin--;
+			}
+			return Arrays.copyOfRange(name, begin + 1, name.length);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof IndexNode)) {
+				return false;
+			}
+			return Arrays.equals(name, ((IndexNode) other).name);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashcode;
+		}
+	}
+
 }
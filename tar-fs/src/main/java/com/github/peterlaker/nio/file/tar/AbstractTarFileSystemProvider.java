@@ -57,9 +57,17 @@ public abstract class AbstractTarFileSystemProvider extends FileSystemProvider {
 		}
 	}
 
-	protected abstract AbstractTarFileSystem newInstance(
+	/**
+	 * Creates the codec reading and writing the archive of a new file system,
+	 * configured by its env map.
+	 */
+	protected abstract TarCodec newCodec(Map<String, ?> env);
+
+	protected AbstractTarFileSystem newInstance(
 			AbstractTarFileSystemProvider provider, Path path,
-			Map<String, ?> env) throws IOException;
+			Map<String, ?> env) throws IOException {
+		return new TarFileSystem(provider, path, env, newCodec(env));
+	}
 
 	protected boolean ensureFile(Path path) {
 		try {
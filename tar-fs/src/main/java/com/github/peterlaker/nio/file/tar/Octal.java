@@ -29,6 +29,20 @@ public class Octal {
 		return result;
 	}
 
+	// octal, or GNU base-256 when the high bit is set
+	public static long parseOctalOrBinary(byte[] header, int offset, int length) {
+		if (( header[offset] & 0x80 ) == 0) {
+			return parseOctal( header, offset, length );
+		}
+		long result = header[offset] == (byte) 0xff ? -1 : 0;
+		int end = offset + length;
+		for (int i = offset + 1; i < end; ++i) {
+			result = ( result << 8 ) | ( header[i] & 0xff );
+		}
+
+		return result;
+	}
+
 	public static int getOctalBytes(long value, byte[] buf, int offset, int length) {
 		int idx = length - 1;
 
@@ -62,9 +76,39 @@ public class Octal {
 	}
 
 	public static int getLongOctalBytes(long value, byte[] buf, int offset, int length) {
-		byte[] temp = new byte[length + 1];
-		getOctalBytes( value, temp, 0, length + 1 );
-		System.arraycopy( temp, 0, buf, offset, length );
+		// the digits of getOctalBytes over one more byte, without its NUL
+		int idx = length - 1;
+		buf[offset + idx] = (byte) ' ';
+		--idx;
+
+		if (value == 0) {
+			buf[offset + idx] = (byte) '0';
+			--idx;
+		} else {
+			for (long val = value; idx >= 0 && val > 0; --idx) {
+				buf[offset + idx] = (byte) ( (byte) '0' + (byte) ( val & 7 ) );
+				val = val >> 3;
+			}
+		}
+
+		for (; idx >= 0; --idx) {
+			buf[offset + idx] = (byte) ' ';
+		}
+
+		return offset + length;
+	}
+
+	public static int getLongOctalOrBinaryBytes(long value, byte[] buf, int offset, int length) {
+		long maxOctal = ( 1L << ( 3 * ( length - 1 ) ) ) - 1;
+		if (value >= 0 && value <= maxOctal) {
+			return getLongOctalBytes( value, buf, offset, length );
+		}
+		long val = value;
+		for (int i = offset + length - 1; i > offset; --i) {
+			buf[i] = (byte) val;
+			val = val >> 8;
+		}
+		buf[offset] = (byte) ( value < 0 ? 0xff : 0x80 );
 		return offset + length;
 	}
 
@@ -0,0 +1,85 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading a sequence of buffers, used to serve the entries of a
+ * memory mapped archive without copying them first.
+ */
+class TarBufferInputStream extends InputStream {
+
+	private final ByteBuffer[] buffers;
+	private int current;
+	private volatile boolean closed;
+
+	TarBufferInputStream(ByteBuffer[] buffers) {
+		this.buffers = buffers;
+		current = 0;
+	}
+
+	private ByteBuffer buffer() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (current < buffers.length && !buffers[current].hasRemaining()) {
+			current++;
+		}
+		return current < buffers.length ? buffers[current] : null;
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+		ByteBuffer buffer = buffer();
+		if (buffer == null) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		int read = 0;
+		ByteBuffer buffer;
+		while (read < len && (buffer = buffer()) != null) {
+			int n = Math.min(len - read, buffer.remaining());
+			buffer.get(b, off + read, n);
+			read += n;
+		}
+		return read == 0 ? -1 : read;
+	}
+
+	@Override
+	public synchronized long skip(long n) throws IOException {
+		long skipped = 0;
+		ByteBuffer buffer;
+		while (skipped < n && (buffer = buffer()) != null) {
+			int step = (int) Math.min(n - skipped, buffer.remaining());
+			buffer.position(buffer.position() + step);
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public synchronized int available() throws IOException {
+		long available = 0;
+		for (int i = current; i < buffers.length; i++) {
+			available += buffers[i].remaining();
+		}
+		return (int) Math.min(available, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+	}
+
+}
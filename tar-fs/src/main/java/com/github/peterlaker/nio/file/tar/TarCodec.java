@@ -0,0 +1,87 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Reads and writes the archive file of a tar file system, compressing it or
+ * not. Every codec reads and writes the archive as a stream, its capabilities
+ * tell the file system which faster ways it supports too.
+ */
+public abstract class TarCodec {
+
+	public enum Capability {
+		/**
+		 * The uncompressed archive is read at any offset through
+		 * {@link TarCodec#newChannel(Path)}, entries are then read lazily.
+		 */
+		SEEKABLE,
+		/**
+		 * The archive is compressed on several threads, which buffer the
+		 * written data themselves.
+		 */
+		PARALLEL,
+		/**
+		 * The archive is written uncompressed at any offset, through
+		 * {@link TarCodec#newAppendChannel(Path)} and
+		 * {@link TarCodec#newOutputChannel(Path)}.
+		 */
+		APPEND
+	}
+
+	/**
+	 * Returns the capabilities of the codec, as configured.
+	 */
+	public abstract Set<Capability> getCapabilities();
+
+	public final boolean hasCapability(Capability capability) {
+		return getCapabilities().contains(capability);
+	}
+
+	/**
+	 * Opens a stream over the uncompressed archive.
+	 */
+	public abstract InputStream newInputStream(Path path) throws IOException;
+
+	/**
+	 * Opens a channel over the uncompressed archive, for a
+	 * {@link Capability#SEEKABLE} codec. A {@link FileChannel} is read at its
+	 * positions concurrently and can be memory mapped, other channels are
+	 * positioned and read while holding their lock. Returns <code>null</code>
+	 * when the file can't be read at an arbitrary offset, it is then read as
+	 * a stream.
+	 */
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Opens the stream the uncompressed archive is written to, compressing it
+	 * to the given file.
+	 */
+	public abstract OutputStream newOutputStream(Path path) throws IOException;
+
+	/**
+	 * Opens a channel to write at the end of the uncompressed archive, for an
+	 * {@link Capability#APPEND} codec. The new entries are then appended in
+	 * place on close.
+	 */
+	public FileChannel newAppendChannel(Path path) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Opens a channel to write the uncompressed archive, for an
+	 * {@link Capability#APPEND} codec. Unchanged entries are then transferred
+	 * to it from the archive channel without being copied in memory.
+	 */
+	public FileChannel newOutputChannel(Path path) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -2,6 +2,7 @@ package com.github.peterlaker.nio.file.tar;
 
 import java.io.IOException;
 import java.nio.file.ClosedDirectoryStreamException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
@@ -11,7 +12,7 @@ import java.util.NoSuchElementException;
 public class TarDirectoryStream implements DirectoryStream<Path> {
 
 	private final AbstractTarFileSystem tarfs;
-	private final byte[] path;
+	private final TarPath dir;
 	private final DirectoryStream.Filter<? super Path> filter;
 	private volatile boolean isClosed;
 	private volatile Iterator<Path> itr;
@@ -21,9 +22,9 @@ public class TarDirectoryStream implements DirectoryStream<Path> {
 					throws IOException
 					{
 		tarfs = tarPath.getFileSystem();
-		path = tarPath.getResolvedPath();
+		dir = tarPath;
 		this.filter = filter;
-		if (!tarfs.isDirectory(path)) {
+		if (!tarfs.isDirectory(tarPath.getResolvedPath())) {
 			throw new NotDirectoryException(tarPath.toString());
 		}
 					}
@@ -38,27 +39,39 @@ public class TarDirectoryStream implements DirectoryStream<Path> {
 		}
 
 		try {
-			itr = tarfs.iteratorOf(path, filter);
+			itr = tarfs.iteratorOf(dir);
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
 		}
 		return new Iterator<Path>() {
-			@SuppressWarnings("unused")
 			private Path next;
 			@Override
-			public boolean hasNext() {
+			public synchronized boolean hasNext() {
 				if (isClosed) {
 					return false;
 				}
-				return itr.hasNext();
+				// the filter is applied as the children are iterated
+				while (next == null && itr.hasNext()) {
+					Path child = itr.next();
+					try {
+						if (filter == null || filter.accept(child)) {
+							next = child;
+						}
+					} catch (IOException e) {
+						throw new DirectoryIteratorException(e);
+					}
+				}
+				return next != null;
 			}
 
 			@Override
 			public synchronized Path next() {
-				if (isClosed) {
+				if (!hasNext()) {
 					throw new NoSuchElementException();
 				}
-				return itr.next();
+				Path result = next;
+				next = null;
+				return result;
 			}
 
 			@Override
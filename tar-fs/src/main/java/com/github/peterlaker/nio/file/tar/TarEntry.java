@@ -1,11 +1,26 @@
 package com.github.peterlaker.nio.file.tar;
 
+import java.nio.ByteBuffer;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class TarEntry {
+	// largest values the octal fields of the header hold
+	private static final long MAX_OCTAL_ID = 0777777L;
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
 	protected byte[] file;
 	protected TarHeader header;
 	protected boolean isDirectory;
+	// offset of the entry data within the archive, -1 if held in memory
+	protected long dataOffset = -1;
+	// offset of the first header of the entry, pax header included, -1 if new
+	protected long headerOffset = -1;
+	// false while the entry is the same as in the archive
+	protected boolean dirty = true;
+	// data written through an output stream, null otherwise
+	protected TarEntryBuffer buffer;
 
 	private TarEntry() {
 		file = null;
@@ -132,9 +147,91 @@ public class TarEntry {
 		return false;
 	}
 
+	// values of the pax extended header preceding the entry
+	public void applyPaxHeaders(Map<String, String> paxHeaders) {
+		String size = paxHeaders.get("size");
+		if (size != null) {
+			header.size = Long.parseLong(size);
+		}
+		String path = paxHeaders.get("path");
+		if (path != null) {
+			header.name = new StringBuffer(path);
+			header.namePrefix = new StringBuffer();
+		}
+		String linkPath = paxHeaders.get("linkpath");
+		if (linkPath != null) {
+			header.linkName = new StringBuffer(linkPath);
+		}
+		String modTime = paxHeaders.get("mtime");
+		if (modTime != null) {
+			int dot = modTime.indexOf('.');
+			header.modTime = Long.parseLong(dot < 0 ? modTime : modTime
+					.substring(0, dot));
+		}
+		String userId = paxHeaders.get("uid");
+		if (userId != null) {
+			header.userId = Integer.parseInt(userId);
+		}
+		String groupId = paxHeaders.get("gid");
+		if (groupId != null) {
+			header.groupId = Integer.parseInt(groupId);
+		}
+		String userName = paxHeaders.get("uname");
+		if (userName != null) {
+			header.userName = new StringBuffer(userName);
+		}
+		String groupName = paxHeaders.get("gname");
+		if (groupName != null) {
+			header.groupName = new StringBuffer(groupName);
+		}
+	}
+
+	// values that don't fit the ustar header, null if they all do
+	public Map<String, String> getPaxHeaders() {
+		Map<String, String> paxHeaders = new TreeMap<>();
+		String name = getName();
+		if (name.length() > TarHeader.NAMELEN && splitName(name) < 0) {
+			paxHeaders.put("path", name);
+		}
+		if (header.linkName.length() > TarHeader.NAMELEN) {
+			paxHeaders.put("linkpath", header.linkName.toString());
+		}
+		if (header.size < 0 || header.size > MAX_OCTAL_SIZE) {
+			paxHeaders.put("size", Long.toString(header.size));
+		}
+		if (header.modTime < 0 || header.modTime > MAX_OCTAL_SIZE) {
+			paxHeaders.put("mtime", Long.toString(header.modTime));
+		}
+		if (header.userId < 0 || header.userId > MAX_OCTAL_ID) {
+			paxHeaders.put("uid", Integer.toString(header.userId));
+		}
+		if (header.groupId < 0 || header.groupId > MAX_OCTAL_ID) {
+			paxHeaders.put("gid", Integer.toString(header.groupId));
+		}
+		if (header.userName.length() > TarHeader.USTAR_USER_NAMELEN) {
+			paxHeaders.put("uname", header.userName.toString());
+		}
+		if (header.groupName.length() > TarHeader.USTAR_GROUP_NAMELEN) {
+			paxHeaders.put("gname", header.groupName.toString());
+		}
+		return paxHeaders.isEmpty() ? null : paxHeaders;
+	}
+
+	// slash splitting the name with the prefix field, -1 if none
+	private static int splitName(String name) {
+		int from = Math.max(1, name.length() - TarHeader.NAMELEN - 1);
+		int to = Math.min(name.length() - 2, TarHeader.USTAR_FILENAME_PREFIX);
+		for (int i = from; i <= to; i++) {
+			if (name.charAt(i) == '/') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	public void extractTarHeader(String entryName) {
 		header = TarHeader.createHeader(entryName, file.length,
-				header.modTime / 1000, isDirectory);
+				System.currentTimeMillis() / 1000, isDirectory);
 	}
 
 	public long computeCheckSum(byte[] buf) {
@@ -147,55 +244,15 @@ public class TarEntry {
 		return sum;
 	}
 
+	// values that don't fit are cut, see getPaxHeaders()
 	public void writeEntryHeader(byte[] outbuf) {
-		int offset = 0;
-
-		offset = TarHeader.getNameBytes(header.name, outbuf, offset,
-				TarHeader.NAMELEN);
-		offset = Octal.getOctalBytes(header.mode, outbuf, offset,
-				TarHeader.MODELEN);
-		offset = Octal.getOctalBytes(header.userId, outbuf, offset,
-				TarHeader.UIDLEN);
-		offset = Octal.getOctalBytes(header.groupId, outbuf, offset,
-				TarHeader.GIDLEN);
-
-		long size = header.size;
-
-		offset = Octal.getLongOctalBytes(size, outbuf, offset,
-				TarHeader.SIZELEN);
-		offset = Octal.getLongOctalBytes(header.modTime, outbuf, offset,
-				TarHeader.MODTIMELEN);
-
-		int csOffset = offset;
-		for (int c = 0; c < TarHeader.CHKSUMLEN; ++c) {
-			outbuf[offset++] = (byte) ' ';
-		}
-
-		outbuf[offset++] = header.linkFlag;
-
-		offset = TarHeader.getNameBytes(header.linkName, outbuf, offset,
-				TarHeader.NAMELEN);
-		offset = TarHeader.getNameBytes(header.magic, outbuf, offset,
-				TarHeader.USTAR_MAGICLEN);
-		offset = TarHeader.getNameBytes(header.userName, outbuf, offset,
-				TarHeader.USTAR_USER_NAMELEN);
-		offset = TarHeader.getNameBytes(header.groupName, outbuf, offset,
-				TarHeader.USTAR_GROUP_NAMELEN);
-		offset = Octal.getOctalBytes(header.devMajor, outbuf, offset,
-				TarHeader.USTAR_DEVLEN);
-		offset = Octal.getOctalBytes(header.devMinor, outbuf, offset,
-				TarHeader.USTAR_DEVLEN);
-		offset = TarHeader.getNameBytes(header.namePrefix, outbuf, offset,
-				TarHeader.USTAR_FILENAME_PREFIX);
-
-		for (; offset < outbuf.length;) {
-			outbuf[offset++] = 0;
-		}
-
-		long checkSum = computeCheckSum(outbuf);
-
-		Octal.getCheckSumOctalBytes(checkSum, outbuf, csOffset,
-				TarHeader.CHKSUMLEN);
+		String name = getName();
+		int split = name.length() > TarHeader.NAMELEN ? splitName(name) : -1;
+		header.namePrefix = new StringBuffer(split > 0 ? name.substring(0,
+				split) : "");
+		header.name = new StringBuffer(split > 0 ? name.substring(split + 1)
+				: name);
+		new TarHeaderBlock().wrap(ByteBuffer.wrap(outbuf), 0).put(header);
 	}
 
 	public void parseTarHeader(byte[] bh) {
@@ -207,16 +264,19 @@ public class TarEntry {
 		header.mode = (int) Octal.parseOctal(bh, offset, TarHeader.MODELEN);
 		offset += TarHeader.MODELEN;
 
-		header.userId = (int) Octal.parseOctal(bh, offset, TarHeader.UIDLEN);
+		header.userId = (int) Octal.parseOctalOrBinary(bh, offset,
+				TarHeader.UIDLEN);
 		offset += TarHeader.UIDLEN;
 
-		header.groupId = (int) Octal.parseOctal(bh, offset, TarHeader.GIDLEN);
+		header.groupId = (int) Octal.parseOctalOrBinary(bh, offset,
+				TarHeader.GIDLEN);
 		offset += TarHeader.GIDLEN;
 
-		header.size = Octal.parseOctal(bh, offset, TarHeader.SIZELEN);
+		header.size = Octal.parseOctalOrBinary(bh, offset, TarHeader.SIZELEN);
 		offset += TarHeader.SIZELEN;
 
-		header.modTime = Octal.parseOctal(bh, offset, TarHeader.MODTIMELEN);
+		header.modTime = Octal.parseOctalOrBinary(bh, offset,
+				TarHeader.MODTIMELEN);
 		offset += TarHeader.MODTIMELEN;
 
 		header.checkSum = (int) Octal.parseOctal(bh, offset,
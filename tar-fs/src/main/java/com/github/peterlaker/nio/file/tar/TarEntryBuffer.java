@@ -0,0 +1,204 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data of an entry written through an output stream, kept in chunks until it
+ * grows past the spill threshold and in a scratch file after that.
+ */
+class TarEntryBuffer {
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Path scratchDir;
+	private final String scratchPrefix;
+	private final long threshold;
+	private final List<byte[]> chunks = new ArrayList<>();
+	private byte[] chunk; // chunk being filled
+	private int count; // bytes used in the chunk being filled
+	private long size;
+	private FileChannel spill;
+	private boolean finished;
+
+	TarEntryBuffer(Path scratchDir, String scratchPrefix, long threshold) {
+		this.scratchDir = scratchDir;
+		this.scratchPrefix = scratchPrefix;
+		this.threshold = threshold;
+	}
+
+	void write(int b) throws IOException {
+		if (chunk == null || count == chunk.length) {
+			nextChunk();
+		}
+		chunk[count++] = (byte) b;
+		size++;
+	}
+
+	void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (chunk == null || count == chunk.length) {
+				nextChunk();
+			}
+			int n = Math.min(len, chunk.length - count);
+			System.arraycopy(b, off, chunk, count, n);
+			count += n;
+			size += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	void write(InputStream is) throws IOException {
+		byte[] buffer = new byte[CHUNK_SIZE];
+		int n;
+		while ((n = is.read(buffer)) != -1) {
+			write(buffer, 0, n);
+		}
+	}
+
+	private void nextChunk() throws IOException {
+		if (finished) {
+			throw new IOException("Entry data already written");
+		}
+		if (chunk != null) {
+			if (spill == null && size >= threshold) {
+				spill = FileChannel.open(Files.createTempFile(scratchDir,
+						scratchPrefix, ".spill"), StandardOpenOption.READ,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.DELETE_ON_CLOSE);
+				for (byte[] c : chunks) {
+					writeSpill(c, c.length);
+				}
+				chunks.clear();
+			}
+			if (spill != null) {
+				writeSpill(chunk, count);
+				count = 0;
+				return;
+			}
+			chunks.add(chunk);
+		}
+		chunk = new byte[CHUNK_SIZE];
+		count = 0;
+	}
+
+	private void writeSpill(byte[] b, int len) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+		while (bb.hasRemaining()) {
+			spill.write(bb);
+		}
+	}
+
+	// the last chunk is trimmed to its content
+	void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		if (chunk == null) {
+			return;
+		}
+		if (spill != null) {
+			writeSpill(chunk, count);
+		} else if (count > 0) {
+			chunks.add(Arrays.copyOf(chunk, count));
+		}
+		chunk = null;
+	}
+
+	long size() {
+		return size;
+	}
+
+	private ByteBuffer[] buffers() {
+		ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBuffer.wrap(chunks.get(i)).asReadOnlyBuffer();
+		}
+		return buffers;
+	}
+
+	InputStream newInputStream() {
+		if (spill != null) {
+			return Channels.newInputStream(newChannel());
+		}
+		return new TarBufferInputStream(buffers());
+	}
+
+	SeekableByteChannel newChannel() {
+		if (spill != null) {
+			return new TarEntryChannel(spill, 0, size);
+		}
+		return new TarEntryChannel(buffers(), size);
+	}
+
+	byte[] toByteArray() throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Entry too large to be read in memory");
+		}
+		byte[] data = new byte[(int) size];
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		try (SeekableByteChannel ch = newChannel()) {
+			while (bb.hasRemaining() && ch.read(bb) >= 0) {
+				// read until full
+			}
+		}
+		return data;
+	}
+
+	long copyTo(OutputStream os, FileChannel out, byte[] buffer)
+			throws IOException {
+		if (spill != null && out != null) {
+			os.flush();
+			long written = 0;
+			while (written < size) {
+				written += spill.transferTo(written, size - written, out);
+			}
+			return written;
+		}
+		if (spill != null) {
+			try (InputStream is = newInputStream()) {
+				long written = 0;
+				int n;
+				while ((n = is.read(buffer)) != -1) {
+					os.write(buffer, 0, n);
+					written += n;
+				}
+				return written;
+			}
+		}
+		for (byte[] c : chunks) {
+			os.write(c);
+		}
+		return size;
+	}
+
+	TarEntryBuffer copy() throws IOException {
+		TarEntryBuffer copy = new TarEntryBuffer(scratchDir, scratchPrefix,
+				threshold);
+		try (InputStream is = newInputStream()) {
+			copy.write(is);
+		}
+		copy.finish();
+		return copy;
+	}
+
+	void release() throws IOException {
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+}
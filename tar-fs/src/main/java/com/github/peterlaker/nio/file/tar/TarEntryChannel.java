@@ -0,0 +1,143 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read only channel over the data of a single entry, read directly from the
+ * archive channel or from its memory mapped slices when it is requested.
+ */
+class TarEntryChannel implements SeekableByteChannel {
+
+	private final SeekableByteChannel archive;
+	private final ByteBuffer[] slices;
+	private final long offset;
+	private final long size;
+	private long position;
+	private volatile boolean open;
+
+	TarEntryChannel(SeekableByteChannel archive, long offset, long size) {
+		this.archive = archive;
+		this.slices = null;
+		this.offset = offset;
+		this.size = size;
+		position = 0;
+		open = true;
+	}
+
+	TarEntryChannel(ByteBuffer[] slices, long size) {
+		this.archive = null;
+		this.slices = slices;
+		this.offset = 0;
+		this.size = size;
+		position = 0;
+		open = true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+		int toRead = (int) Math.min(dst.remaining(), size - position);
+		if (toRead == 0) {
+			return 0;
+		}
+		if (slices != null) {
+			readSlices(dst, toRead);
+			return toRead;
+		}
+		ByteBuffer view = dst.duplicate();
+		view.limit(view.position() + toRead);
+		int read;
+		if (archive instanceof FileChannel) {
+			read = ((FileChannel) archive).read(view, offset + position);
+		} else {
+			synchronized (archive) {
+				archive.position(offset + position);
+				read = archive.read(view);
+			}
+		}
+		if (read < 0) {
+			return -1;
+		}
+		dst.position(dst.position() + read);
+		position += read;
+		return read;
+	}
+
+	private void readSlices(ByteBuffer dst, int toRead) {
+		long start = 0;
+		int i = 0;
+		while (position >= start + slices[i].capacity()) {
+			start += slices[i].capacity();
+			i++;
+		}
+		while (toRead > 0) {
+			ByteBuffer slice = slices[i].duplicate();
+			slice.position((int) (position - start));
+			int n = Math.min(toRead, slice.remaining());
+			slice.limit(slice.position() + n);
+			dst.put(slice);
+			position += n;
+			toRead -= n;
+			start += slices[i].capacity();
+			i++;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
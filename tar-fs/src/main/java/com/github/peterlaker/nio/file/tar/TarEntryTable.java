@@ -0,0 +1,281 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * Entries of the archive left as they are in it, one row of primitive
+ * columns each and their names packed in a single arena. A read racing with
+ * an append may fail with an IndexOutOfBoundsException.
+ */
+final class TarEntryTable {
+
+	private static final int INITIAL_ROWS = 64;
+
+	private int size; // rows
+	private int namesLength; // bytes of the arena in use
+	private ByteBuffer headerOffsets; // longs
+	private ByteBuffer dataOffsets; // longs
+	private ByteBuffer sizes; // longs
+	private ByteBuffer modTimes; // longs, in seconds
+	private ByteBuffer modes; // ints
+	private ByteBuffer types; // bytes, the link flag
+	private ByteBuffer nameEnds; // ints, end of each name in the arena
+	private ByteBuffer names; // arena of the names, byte per char
+	private final BitSet removed = new BitSet(); // replaced or deleted rows
+	private final BitSet changed = new BitSet(); // removed once indexed
+	private boolean indexed;
+
+	TarEntryTable() {
+		allocate(INITIAL_ROWS, INITIAL_ROWS * 32);
+	}
+
+	private TarEntryTable(int size, int namesLength) {
+		this.size = size;
+		this.namesLength = namesLength;
+	}
+
+	int add(byte[] name, int nameLength, long headerOffset, long dataOffset,
+			long size, long modTime, int mode, byte type) {
+		if (this.size << 3 == headerOffsets.capacity()
+				|| namesLength + nameLength > names.capacity()) {
+			allocate(Math.max(this.size + (this.size >> 1), INITIAL_ROWS),
+					Math.max(namesLength + (namesLength >> 1), namesLength
+							+ nameLength));
+		}
+		int row = this.size++;
+		headerOffsets.putLong(row << 3, headerOffset);
+		dataOffsets.putLong(row << 3, dataOffset);
+		sizes.putLong(row << 3, size);
+		modTimes.putLong(row << 3, modTime);
+		modes.putInt(row << 2, mode);
+		types.put(row, type);
+		for (int i = 0; i < nameLength; i++) {
+			names.put(namesLength++, name[i]);
+		}
+		nameEnds.putInt(row << 2, namesLength);
+		return row;
+	}
+
+	int add(TarEntryTable from, int row) {
+		byte[] name = from.name(row);
+		return add(name, name.length, from.headerOffset(row), from
+				.dataOffset(row), from.size(row), from.modTime(row), from
+				.mode(row), from.type(row));
+	}
+
+	private void allocate(int rows, int nameBytes) {
+		headerOffsets = grow(headerOffsets, rows << 3, size << 3);
+		dataOffsets = grow(dataOffsets, rows << 3, size << 3);
+		sizes = grow(sizes, rows << 3, size << 3);
+		modTimes = grow(modTimes, rows << 3, size << 3);
+		modes = grow(modes, rows << 2, size << 2);
+		types = grow(types, rows, size);
+		nameEnds = grow(nameEnds, rows << 2, size << 2);
+		names = grow(names, nameBytes, namesLength);
+	}
+
+	private static ByteBuffer grow(ByteBuffer column, int capacity, int used) {
+		ByteBuffer bb = ByteBuffer.allocate(capacity);
+		if (column != null) {
+			ByteBuffer src = column.duplicate();
+			src.position(0).limit(used);
+			bb.put(src);
+			bb.clear();
+		}
+		return bb;
+	}
+
+	void trim() {
+		if (headerOffsets.hasArray() && (size << 3 < headerOffsets.capacity()
+				|| namesLength < names.capacity())) {
+			allocate(size, namesLength);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	long headerOffset(int row) {
+		return headerOffsets.getLong(row << 3);
+	}
+
+	long dataOffset(int row) {
+		return dataOffsets.getLong(row << 3);
+	}
+
+	long size(int row) {
+		return sizes.getLong(row << 3);
+	}
+
+	long modTime(int row) {
+		return modTimes.getLong(row << 3);
+	}
+
+	int mode(int row) {
+		return modes.getInt(row << 2);
+	}
+
+	byte type(int row) {
+		return types.get(row);
+	}
+
+	byte[] name(int row) {
+		int start = row == 0 ? 0 : nameEnds.getInt(row - 1 << 2);
+		int end = nameEnds.getInt(row << 2);
+		if (end < start) {
+			// read while the columns grew
+			throw new IndexOutOfBoundsException("Row " + row);
+		}
+		byte[] name = new byte[end - start];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = names.get(start + i);
+		}
+		return name;
+	}
+
+	// -1 when no entry starts at the offset
+	int find(long headerOffset) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long offset = headerOffset(mid);
+			if (offset < headerOffset) {
+				low = mid + 1;
+			} else if (offset > headerOffset) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	boolean isDirectory(int row) {
+		int end = nameEnds.getInt(row << 2);
+		int start = row == 0 ? 0 : nameEnds.getInt(row - 1 << 2);
+		return type(row) == TarHeader.LF_DIR || end > start
+				&& names.get(end - 1) == '/';
+	}
+
+	// a new entry without the fields the table doesn't hold
+	TarEntry entry(int row) {
+		TarHeader header = new TarHeader();
+		header.name = new StringBuffer(new String(name(row),
+				StandardCharsets.ISO_8859_1));
+		header.size = size(row);
+		header.modTime = modTime(row);
+		header.mode = mode(row);
+		header.linkFlag = type(row);
+		TarEntry te = new TarEntry(header);
+		te.file = null;
+		te.headerOffset = headerOffset(row);
+		te.dataOffset = dataOffset(row);
+		te.dirty = false;
+		return te;
+	}
+
+	// rows removed before the archive is indexed were shadowed in it
+	void remove(int row) {
+		removed.set(row);
+		if (indexed) {
+			changed.set(row);
+		}
+	}
+
+	boolean isRemoved(int row) {
+		return removed.get(row);
+	}
+
+	int nextRow(int row) {
+		return Math.min(removed.nextClearBit(row), size);
+	}
+
+	int nextChange(int row) {
+		return changed.nextSetBit(row);
+	}
+
+	void indexed() {
+		indexed = true;
+		trim();
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		int rows = size - removed.cardinality();
+		int length = 0;
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			length += name(row).length;
+		}
+		out.writeInt(rows);
+		out.writeInt(length);
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeLong(headerOffset(row));
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeLong(dataOffset(row));
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeLong(size(row));
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeLong(modTime(row));
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeInt(mode(row));
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.writeByte(type(row));
+		}
+		int end = 0;
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			end += name(row).length;
+			out.writeInt(end);
+		}
+		for (int row = nextRow(0); row < size; row = nextRow(row + 1)) {
+			out.write(name(row));
+		}
+	}
+
+	// the columns are slices of the buffer
+	static TarEntryTable slice(ByteBuffer bb) {
+		int rows = bb.getInt();
+		int length = bb.getInt();
+		if (rows < 0 || length < 0) {
+			throw new IllegalArgumentException("Invalid table");
+		}
+		TarEntryTable table = new TarEntryTable(rows, length);
+		table.headerOffsets = slice(bb, (long) rows << 3);
+		table.dataOffsets = slice(bb, (long) rows << 3);
+		table.sizes = slice(bb, (long) rows << 3);
+		table.modTimes = slice(bb, (long) rows << 3);
+		table.modes = slice(bb, (long) rows << 2);
+		table.types = slice(bb, rows);
+		table.nameEnds = slice(bb, (long) rows << 2);
+		table.names = slice(bb, length);
+		int end = 0;
+		for (int row = 0; row < rows; row++) {
+			int next = table.nameEnds.getInt(row << 2);
+			if (next < end || next > length) {
+				throw new IllegalArgumentException("Invalid table");
+			}
+			end = next;
+		}
+		return table;
+	}
+
+	private static ByteBuffer slice(ByteBuffer bb, long length) {
+		if (length > bb.remaining()) {
+			throw new IllegalArgumentException("Truncated table");
+		}
+		ByteBuffer column = bb.duplicate();
+		column.limit(bb.position() + (int) length);
+		bb.position(bb.position() + (int) length);
+		return column.slice();
+	}
+
+}
@@ -1,16 +1,12 @@
 package com.github.peterlaker.nio.file.tar;
 
-import java.io.IOException;
-import java.nio.file.Path;
 import java.util.Map;
 
 public class TarFileSystemProvider extends AbstractTarFileSystemProvider {
 
 	@Override
-	protected AbstractTarFileSystem newInstance(
-			AbstractTarFileSystemProvider provider, Path path,
-			Map<String, ?> env) throws IOException {
-		return new TarFileSystem(provider, path, env);
+	protected TarCodec newCodec(Map<String, ?> env) {
+		return new UncompressedTarCodec();
 	}
 
 	@Override
@@ -1,6 +1,9 @@
 package com.github.peterlaker.nio.file.tar;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Header
@@ -32,6 +35,8 @@ import java.io.File;
  * '5'          Directory
  * '6'          FIFO
  * '7'          Contigous
+ * 'x'          Pax extended header for the next entry
+ * 'g'          Pax global extended header
  * </pre>
  *
  *
@@ -74,6 +79,8 @@ public class TarHeader {
 	public static final byte LF_DIR = (byte) '5';
 	public static final byte LF_FIFO = (byte) '6';
 	public static final byte LF_CONTIG = (byte) '7';
+	public static final byte LF_PAX_EXTENDED = (byte) 'x';
+	public static final byte LF_PAX_GLOBAL = (byte) 'g';
 
 	/*
 	 * Ustar header
@@ -123,17 +130,75 @@ public class TarHeader {
 	}
 
 	public static StringBuffer parseName(byte[] header, int offset, int length) {
-		StringBuffer result = new StringBuffer(length);
+		int end = offset;
+		while (end < offset + length && header[end] != 0) {
+			++end;
+		}
+
+		return new StringBuffer(new String(header, offset, end - offset,
+				StandardCharsets.ISO_8859_1));
+	}
+
+	// "length keyword=value\n" records, kept byte per char
+	public static Map<String, String> parsePaxHeaders(byte[] data) {
+		Map<String, String> headers = new HashMap<>();
+		int offset = 0;
+		while (offset < data.length && data[offset] != 0) {
+			int length = 0;
+			int i = offset;
+			while (i < data.length && data[i] >= '0' && data[i] <= '9') {
+				length = length * 10 + data[i++] - '0';
+			}
+			int end = offset + length;
+			if (i >= data.length || data[i] != ' ' || end <= i
+					|| end > data.length) {
+				break; // malformed record
+			}
+			int eq = ++i;
+			while (eq < end && data[eq] != '=') {
+				eq++;
+			}
+			if (eq < end) {
+				headers.put(new String(data, i, eq - i,
+						StandardCharsets.ISO_8859_1), new String(data, eq + 1,
+						end - eq - 2, StandardCharsets.ISO_8859_1));
+			}
+			offset = end;
+		}
+		return headers;
+	}
 
-		int end = offset + length;
-		for (int i = offset; i < end; ++i) {
-			if (header[i] == 0) {
-				break;
+	public static byte[] formatPaxHeaders(Map<String, String> headers) {
+		StringBuilder records = new StringBuilder();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			// the length of a record counts its own digits
+			int length = header.getKey().length() + header.getValue().length()
+					+ 3;
+			int digits = Integer.toString(length).length();
+			if (Integer.toString(length + digits).length() > digits) {
+				digits++;
 			}
-			result.append((char) header[i]);
+			records.append(length + digits).append(' ')
+					.append(header.getKey()).append('=')
+					.append(header.getValue()).append('\n');
 		}
+		return records.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
 
-		return result;
+	public static TarHeader createPaxHeader(String entryName, long size,
+			long modTime) {
+		String name = TarUtils.trim(entryName, '/');
+		name = "PaxHeaders.0/" + name.substring(name.lastIndexOf('/') + 1);
+		if (name.length() > NAMELEN) {
+			name = name.substring(0, NAMELEN);
+		}
+		TarHeader header = new TarHeader();
+		header.name = new StringBuffer(name);
+		header.mode = 0100644;
+		header.linkFlag = TarHeader.LF_PAX_EXTENDED;
+		header.size = size;
+		header.modTime = modTime;
+		return header;
 	}
 
 	public static int getNameBytes(StringBuffer name, byte[] buf, int offset, int length) {
@@ -150,6 +215,10 @@ public class TarHeader {
 		return offset + length;
 	}
 
+	/**
+	 * Creates the header of a new entry, its modification time is in seconds
+	 * like the header holds it.
+	 */
 	public static TarHeader createHeader(String entryName, long size, long modTime, boolean dir) {
 		String name = entryName;
 		name = TarUtils.trim(name.replace(File.separatorChar, '/'), '/');
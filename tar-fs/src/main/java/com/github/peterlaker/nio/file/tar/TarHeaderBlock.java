@@ -0,0 +1,311 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over a header block held in a buffer, the fields are read and
+ * written in place at their offsets. A single instance is moved from block to
+ * block with {@link #wrap(ByteBuffer, int)}, so that the archive is scanned
+ * without making objects for the headers it only indexes.
+ * <p>
+ * A block is told apart in a single pass by {@link #check()}, which reads it
+ * eight bytes at a time and sums them in the lanes of a long, as wide as the
+ * target of the library allows without vector instructions. The buffers are
+ * in the default big endian order. TarHeaderBlockBenchmark, under src/jmh,
+ * times it against a check a byte at a time.
+ * <p>
+ * The numeric fields are parsed and written the way {@link Octal} does, and
+ * the name the way {@link TarEntry#getName()} joins it with its prefix.
+ */
+final class TarHeaderBlock {
+
+	static final int NAME = 0;
+	static final int MODE = 100;
+	static final int UID = 108;
+	static final int GID = 116;
+	static final int SIZE = 124;
+	static final int MODTIME = 136;
+	static final int CHKSUM = 148;
+	static final int LINKFLAG = 156;
+	static final int LINKNAME = 157;
+	static final int MAGIC = 257;
+	static final int USER_NAME = 265;
+	static final int GROUP_NAME = 297;
+	static final int DEVMAJOR = 329;
+	static final int DEVMINOR = 337;
+	static final int PREFIX = 345;
+
+	/**
+	 * Kinds of block told apart by {@link #check()}.
+	 */
+	static final int ZERO = 0; // two of them end the archive
+	static final int HEADER = 1;
+	static final int CORRUPT = 2; // header with an invalid checksum
+	static final int OTHER = 3; // data or padding, skipped
+
+	/**
+	 * Longest name of a header, its prefix, a slash and its name.
+	 */
+	static final int MAX_NAME = TarHeader.USTAR_FILENAME_PREFIX + 1
+			+ TarHeader.NAMELEN;
+
+	// "ustar" at the second to sixth bytes of the long before the magic
+	private static final long USTAR = 0x0075737461720000L;
+	private static final long USTAR_MASK = 0x00FFFFFFFFFF0000L;
+	private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private ByteBuffer bb;
+	private int base;
+
+	/**
+	 * Moves the flyweight to the block at the given offset of the buffer.
+	 */
+	TarHeaderBlock wrap(ByteBuffer bb, int offset) {
+		this.bb = bb;
+		this.base = offset;
+		return this;
+	}
+
+	/**
+	 * Tells the kind of the block in a single pass over its bytes. The bytes
+	 * are summed two per lane of 16 bits, which hold the sum of a whole block,
+	 * and the signed sum some old archivers wrote is made from the count of
+	 * bytes with their high bit set. The checksum field counts as spaces.
+	 */
+	int check() {
+		long lanes = 0;
+		long bits = 0;
+		int negative = 0;
+		int end = base + TarConstants.HEADER_BLOCK;
+		for (int i = base; i < end; i += 8) {
+			long v = bb.getLong(i);
+			bits |= v;
+			lanes += (v & LOW_BYTES) + (v >>> 8 & LOW_BYTES);
+			negative += Long.bitCount(v & HIGH_BITS);
+		}
+		if (bits == 0) {
+			return ZERO;
+		}
+		if (!isUstar()) {
+			return OTHER;
+		}
+		long unsigned = sumLanes(lanes);
+		long signed = unsigned - 256 * negative;
+		for (int i = CHKSUM; i < CHKSUM + TarHeader.CHKSUMLEN; i++) {
+			byte b = bb.get(base + i);
+			unsigned += ' ' - (b & 0xff);
+			signed += ' ' - b;
+		}
+		long checkSum = parseOctal(CHKSUM, TarHeader.CHKSUMLEN);
+		return checkSum == unsigned || checkSum == signed ? HEADER : CORRUPT;
+	}
+
+	/**
+	 * Tells if the block is a ustar header, the other blocks of the archive
+	 * are skipped.
+	 */
+	boolean isUstar() {
+		return (bb.getLong(base + MAGIC - 1) & USTAR_MASK) == USTAR;
+	}
+
+	private static long sumLanes(long lanes) {
+		return (lanes & 0xffff) + (lanes >>> 16 & 0xffff)
+				+ (lanes >>> 32 & 0xffff) + (lanes >>> 48);
+	}
+
+	int mode() {
+		return (int) parseOctal(MODE, TarHeader.MODELEN);
+	}
+
+	int userId() {
+		return (int) parseOctalOrBinary(UID, TarHeader.UIDLEN);
+	}
+
+	int groupId() {
+		return (int) parseOctalOrBinary(GID, TarHeader.GIDLEN);
+	}
+
+	long size() {
+		return parseOctalOrBinary(SIZE, TarHeader.SIZELEN);
+	}
+
+	/**
+	 * Returns the modification time, in seconds.
+	 */
+	long modTime() {
+		return parseOctalOrBinary(MODTIME, TarHeader.MODTIMELEN);
+	}
+
+	byte linkFlag() {
+		return bb.get(base + LINKFLAG);
+	}
+
+	/**
+	 * Copies the name, joined with its prefix, to the given array of at least
+	 * {@link #MAX_NAME} bytes and returns its length.
+	 */
+	int getName(byte[] dst) {
+		int length = 0;
+		if (bb.get(base + PREFIX) != 0) {
+			length = getString(PREFIX, TarHeader.USTAR_FILENAME_PREFIX, dst,
+					0);
+			dst[length++] = '/';
+		}
+		return getString(NAME, TarHeader.NAMELEN, dst, length);
+	}
+
+	/**
+	 * Copies the block to the given array, to make an entry of it.
+	 */
+	byte[] copyTo(byte[] dst) {
+		for (int i = 0; i < TarConstants.HEADER_BLOCK; i++) {
+			dst[i] = bb.get(base + i);
+		}
+		return dst;
+	}
+
+	private int getString(int field, int length, byte[] dst, int offset) {
+		int n = offset;
+		for (int i = base + field, end = i + length; i < end; i++) {
+			byte b = bb.get(i);
+			if (b == 0) {
+				break;
+			}
+			dst[n++] = b;
+		}
+		return n;
+	}
+
+	private long parseOctal(int field, int length) {
+		long result = 0;
+		boolean stillPadding = true;
+		for (int i = base + field, end = i + length; i < end; i++) {
+			byte b = bb.get(i);
+			if (b == 0) {
+				break;
+			}
+			if (b == ' ' || b == '0') {
+				if (stillPadding) {
+					continue;
+				}
+				if (b == ' ') {
+					break;
+				}
+			}
+			stillPadding = false;
+			result = (result << 3) + (b - '0');
+		}
+		return result;
+	}
+
+	private long parseOctalOrBinary(int field, int length) {
+		byte first = bb.get(base + field);
+		if ((first & 0x80) == 0) {
+			return parseOctal(field, length);
+		}
+		long result = first == (byte) 0xff ? -1 : 0;
+		int end = base + field + length;
+		for (int i = base + field + 1; i < end; i++) {
+			result = (result << 8) | (bb.get(i) & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the fields of the header to the block, with its checksum.
+	 */
+	void put(TarHeader header) {
+		putString(NAME, header.name, TarHeader.NAMELEN);
+		putOctal(MODE, header.mode, TarHeader.MODELEN);
+		putOctal(UID, header.userId, TarHeader.UIDLEN);
+		putOctal(GID, header.groupId, TarHeader.GIDLEN);
+		putLongOctalOrBinary(SIZE, header.size, TarHeader.SIZELEN);
+		putLongOctal(MODTIME, header.modTime, TarHeader.MODTIMELEN);
+		for (int i = 0; i < TarHeader.CHKSUMLEN; i++) {
+			bb.put(base + CHKSUM + i, (byte) ' ');
+		}
+		bb.put(base + LINKFLAG, header.linkFlag);
+		putString(LINKNAME, header.linkName, TarHeader.NAMELEN);
+		putString(MAGIC, header.magic, TarHeader.USTAR_MAGICLEN);
+		putString(USER_NAME, header.userName, TarHeader.USTAR_USER_NAMELEN);
+		putString(GROUP_NAME, header.groupName,
+				TarHeader.USTAR_GROUP_NAMELEN);
+		putOctal(DEVMAJOR, header.devMajor, TarHeader.USTAR_DEVLEN);
+		putOctal(DEVMINOR, header.devMinor, TarHeader.USTAR_DEVLEN);
+		putString(PREFIX, header.namePrefix, TarHeader.USTAR_FILENAME_PREFIX);
+		int end = base + TarConstants.HEADER_BLOCK;
+		int pad = base + PREFIX + TarHeader.USTAR_FILENAME_PREFIX;
+		for (int i = pad; i < end; i++) {
+			bb.put(i, (byte) 0);
+		}
+		long lanes = 0;
+		for (int i = base; i < end; i += 8) {
+			long v = bb.getLong(i);
+			lanes += (v & LOW_BYTES) + (v >>> 8 & LOW_BYTES);
+		}
+		long checkSum = sumLanes(lanes);
+		// six digits, a NUL and a space
+		putOctal(CHKSUM, checkSum, TarHeader.CHKSUMLEN);
+		bb.put(base + CHKSUM + TarHeader.CHKSUMLEN - 1, (byte) ' ');
+		bb.put(base + CHKSUM + TarHeader.CHKSUMLEN - 2, (byte) 0);
+	}
+
+	private void putString(int field, CharSequence s, int length) {
+		int i = 0;
+		for (; i < length && i < s.length(); i++) {
+			bb.put(base + field + i, (byte) s.charAt(i));
+		}
+		for (; i < length; i++) {
+			bb.put(base + field + i, (byte) 0);
+		}
+	}
+
+	/*
+	 * Octal digits padded with spaces, a space and a NUL.
+	 */
+	private void putOctal(int field, long value, int length) {
+		bb.put(base + field + length - 1, (byte) 0);
+		putDigits(field, value, length - 1);
+	}
+
+	/*
+	 * Octal digits padded with spaces and a space, the field has one digit
+	 * more than with putOctal.
+	 */
+	private void putLongOctal(int field, long value, int length) {
+		putDigits(field, value, length);
+	}
+
+	private void putLongOctalOrBinary(int field, long value, int length) {
+		long maxOctal = (1L << (3 * (length - 1))) - 1;
+		if (value >= 0 && value <= maxOctal) {
+			putLongOctal(field, value, length);
+			return;
+		}
+		long val = value;
+		for (int i = base + field + length - 1; i > base + field; i--) {
+			bb.put(i, (byte) val);
+			val = val >> 8;
+		}
+		bb.put(base + field, (byte) (value < 0 ? 0xff : 0x80));
+	}
+
+	private void putDigits(int field, long value, int length) {
+		int idx = base + field + length - 1;
+		int start = base + field;
+		bb.put(idx--, (byte) ' ');
+		if (value == 0) {
+			bb.put(idx--, (byte) '0');
+		} else {
+			for (long val = value; idx >= start && val > 0; idx--) {
+				bb.put(idx, (byte) ('0' + (val & 7)));
+				val = val >> 3;
+			}
+		}
+		for (; idx >= start; idx--) {
+			bb.put(idx, (byte) ' ');
+		}
+	}
+
+}
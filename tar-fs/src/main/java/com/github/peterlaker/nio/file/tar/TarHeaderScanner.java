@@ -0,0 +1,173 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Walks the header blocks of an archive, stopping at each entry. Where the
+ * walk goes depends only on the entry it is at, so walks started at different
+ * offsets are the same once they meet.
+ */
+final class TarHeaderScanner {
+
+	static final int ENTRY = 0; // results of next()
+	static final int END = 1; // two zero blocks
+	static final int EOF = 2; // end of the file
+
+	private final SeekableByteChannel archive;
+	private final TarMappedArchive mapped; // null if the archive isn't
+	private final String archiveName;
+	private final ByteBuffer block = ByteBuffer
+			.allocate(TarConstants.HEADER_BLOCK);
+	private final TarHeaderBlock header = new TarHeaderBlock();
+	private final byte[] nameBuffer = new byte[TarHeaderBlock.MAX_NAME];
+	private long pos;
+	private boolean zeroBlock;
+	private long paxOffset;
+	private Map<String, String> paxHeaders;
+	private long archiveEnd;
+
+	// the entry the walk is at
+	private Map<String, String> entryPaxHeaders;
+	private byte[] name;
+	private int nameLength;
+	private long headerOffset;
+	private long dataOffset;
+	private long size;
+	private long modTime;
+	private int mode;
+	private byte type;
+
+	TarHeaderScanner(SeekableByteChannel archive, TarMappedArchive mapped,
+			String archiveName) {
+		this.archive = archive;
+		this.mapped = mapped;
+		this.archiveName = archiveName;
+	}
+
+	void seek(long offset) {
+		pos = offset;
+		archiveEnd = offset;
+		zeroBlock = false;
+		paxHeaders = null;
+	}
+
+	long position() {
+		return pos;
+	}
+
+	long archiveEnd() {
+		return archiveEnd;
+	}
+
+	int next() throws IOException {
+		while (true) {
+			long offset = pos;
+			if (mapped != null) {
+				if (pos + TarConstants.HEADER_BLOCK > mapped.size()) {
+					return EOF;
+				}
+				header.wrap(mapped.window(pos),
+						(int) (pos % TarMappedArchive.WINDOW_SIZE));
+			} else {
+				block.clear();
+				AbstractTarFileSystem.readFully(archive, block, pos);
+				if (block.hasRemaining()) {
+					return EOF;
+				}
+				header.wrap(block, 0);
+			}
+			pos += TarConstants.HEADER_BLOCK;
+			int kind = header.check();
+			if (kind == TarHeaderBlock.ZERO && zeroBlock) {
+				return END;
+			}
+			zeroBlock = kind == TarHeaderBlock.ZERO;
+			if (kind == TarHeaderBlock.ZERO || kind == TarHeaderBlock.OTHER) {
+				continue;
+			}
+			if (kind == TarHeaderBlock.CORRUPT) {
+				throw new IOException("Invalid checksum of the header at "
+						+ offset + " of archive " + archiveName);
+			}
+			long blockSize = header.size();
+			byte linkFlag = header.linkFlag();
+			boolean entry = false;
+			if (linkFlag == TarHeader.LF_PAX_EXTENDED) {
+				paxHeaders = TarHeader.parsePaxHeaders(readData(pos,
+						blockSize));
+				paxOffset = offset;
+			} else if (linkFlag != TarHeader.LF_PAX_GLOBAL) {
+				setEntry(offset, blockSize, linkFlag);
+				blockSize = size;
+				entry = true;
+			}
+			pos += (blockSize + TarConstants.DATA_BLOCK - 1)
+					/ TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+			archiveEnd = pos;
+			if (entry) {
+				return ENTRY;
+			}
+		}
+	}
+
+	private void setEntry(long offset, long blockSize, byte linkFlag) {
+		headerOffset = paxHeaders != null ? paxOffset : offset;
+		dataOffset = pos;
+		type = linkFlag;
+		mode = header.mode();
+		entryPaxHeaders = paxHeaders;
+		if (paxHeaders == null) {
+			name = nameBuffer;
+			nameLength = header.getName(nameBuffer);
+			size = blockSize;
+			modTime = header.modTime();
+			return;
+		}
+		TarEntry te = entry();
+		name = te.getName().getBytes(StandardCharsets.ISO_8859_1);
+		nameLength = name.length;
+		size = te.getSize();
+		modTime = te.getHeader().modTime;
+		paxHeaders = null;
+	}
+
+	TarEntry entry() {
+		TarEntry te = new TarEntry(header
+				.copyTo(new byte[TarConstants.HEADER_BLOCK]));
+		if (entryPaxHeaders != null) {
+			te.applyPaxHeaders(entryPaxHeaders);
+		}
+		te.headerOffset = headerOffset;
+		te.dataOffset = dataOffset;
+		te.dirty = false;
+		return te;
+	}
+
+	// the pax header of the entry if it has one
+	long headerOffset() {
+		return headerOffset;
+	}
+
+	int addTo(TarEntryTable table) {
+		return table.add(name, nameLength, headerOffset, dataOffset, size,
+				modTime, mode, type);
+	}
+
+	private byte[] readData(long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Pax header of " + length
+					+ " bytes is too large to be read in memory");
+		}
+		ByteBuffer data = ByteBuffer.allocate((int) length);
+		AbstractTarFileSystem.readFully(archive, data, offset);
+		if (data.hasRemaining()) {
+			throw new IOException("Unexpected end of archive " + archiveName);
+		}
+		return data.array();
+	}
+
+}
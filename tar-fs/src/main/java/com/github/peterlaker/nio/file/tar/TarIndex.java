@@ -0,0 +1,63 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Table of the entries of an archive and where their data starts, stored
+ * next to the archive so that it isn't scanned again when it is reopened.
+ */
+class TarIndex {
+
+	static final String SUFFIX = ".taridx";
+
+	private static final int MAGIC = 0x74696478; // "tidx"
+	private static final int VERSION = 2;
+
+	private final TarEntryTable table;
+	private final long archiveEnd;
+
+	private TarIndex(TarEntryTable table, long archiveEnd) {
+		this.table = table;
+		this.archiveEnd = archiveEnd;
+	}
+
+	TarEntryTable table() {
+		return table;
+	}
+
+	long archiveEnd() {
+		return archiveEnd;
+	}
+
+	static TarIndex load(Path file, Path archive) {
+		ByteBuffer bb = TarIndexFile.load(file, archive, MAGIC, VERSION);
+		if (bb == null) {
+			return null;
+		}
+		try {
+			long archiveEnd = bb.getLong();
+			return new TarIndex(TarEntryTable.slice(bb), archiveEnd);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	static void store(Path file, Path archive, final TarEntryTable table,
+			final long archiveEnd) throws IOException {
+		TarIndexFile.store(file, archive, MAGIC, VERSION,
+				new TarIndexFile.Writer() {
+
+					@Override
+					public void writeTo(DataOutputStream out)
+							throws IOException {
+						out.writeLong(archiveEnd);
+						table.writeTo(out);
+					}
+				});
+	}
+
+}
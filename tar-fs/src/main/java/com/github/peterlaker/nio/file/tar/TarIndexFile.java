@@ -0,0 +1,117 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * Index files kept next to an archive. Each one is only used while the
+ * archive keeps the size, time and file key it was written for.
+ */
+public final class TarIndexFile {
+
+	public interface Writer {
+
+		void writeTo(DataOutputStream out) throws IOException;
+
+	}
+
+	private TarIndexFile() {
+	}
+
+	public static boolean isIndexed(Map<String, ?> env) {
+		return "true".equals(env.get("index")) || env.containsKey("index.file");
+	}
+
+	public static boolean isReadOnly(Map<String, ?> env) {
+		return "true".equals(env.get("readonly"));
+	}
+
+	// the index of a codec is kept next to the one of the entries
+	public static Path resolve(Path archive, Map<String, ?> env,
+			String suffix) {
+		if (env.containsKey("index.file")) {
+			Path file = Paths.get(env.get("index.file").toString());
+			return suffix.equals(TarIndex.SUFFIX) ? file : file
+					.resolveSibling(file.getFileName() + suffix);
+		}
+		return archive.resolveSibling(archive.getFileName() + suffix);
+	}
+
+	// null when there is none for this version of the archive
+	public static ByteBuffer load(Path file, Path archive, int magic,
+			int version) {
+		if (Files.notExists(file)) {
+			return null;
+		}
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			BasicFileAttributes attrs = Files.readAttributes(archive,
+					BasicFileAttributes.class);
+			if (bb.getInt() != magic || bb.getInt() != version
+					|| bb.getLong() != attrs.size()
+					|| bb.getLong() != attrs.lastModifiedTime().toMillis()
+					|| !getString(bb).equals(fileKey(attrs))) {
+				return null;
+			}
+			return bb.slice();
+		} catch (IOException | BufferUnderflowException
+				| IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	public static void store(Path file, Path archive, int magic, int version,
+			Writer writer) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(archive,
+				BasicFileAttributes.class);
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file
+				.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(magic);
+				out.writeInt(version);
+				out.writeLong(attrs.size());
+				out.writeLong(attrs.lastModifiedTime().toMillis());
+				putString(out, fileKey(attrs));
+				writer.writeTo(out);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static String getString(ByteBuffer bb) {
+		byte[] b = new byte[bb.getInt()];
+		bb.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void putString(DataOutputStream out, CharSequence s)
+			throws IOException {
+		byte[] b = (s != null ? s.toString() : "")
+				.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String fileKey(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return key != null ? key.toString() : "";
+	}
+
+}
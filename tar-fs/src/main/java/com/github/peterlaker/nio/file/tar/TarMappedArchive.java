@@ -0,0 +1,74 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read only memory mapping of an uncompressed archive. A single mapping is
+ * limited to 2GB, so larger archives are mapped as consecutive windows and an
+ * entry crossing a window boundary is returned as more than one slice.
+ */
+class TarMappedArchive {
+
+	static final long WINDOW_SIZE = 1L << 30;
+
+	private final MappedByteBuffer[] windows;
+	private final long size;
+
+	TarMappedArchive(FileChannel channel) throws IOException {
+		size = channel.size();
+		int count = (int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE);
+		windows = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = i * WINDOW_SIZE;
+			windows[i] = channel.map(MapMode.READ_ONLY, start,
+					Math.min(WINDOW_SIZE, size - start));
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the window holding the given offset, to be read at the offset
+	 * modulo {@link #WINDOW_SIZE}. Windows are a whole number of blocks, a
+	 * header block is never split between two of them.
+	 */
+	ByteBuffer window(long offset) {
+		return windows[(int) (offset / WINDOW_SIZE)];
+	}
+
+	/**
+	 * Returns read only buffers sharing the mapped memory of the given range,
+	 * each positioned at zero.
+	 */
+	ByteBuffer[] slices(long offset, long length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > size) {
+			throw new IOException("Entry data out of the archive bounds");
+		}
+		if (length == 0) {
+			return new ByteBuffer[] { ByteBuffer.allocate(0) };
+		}
+		int first = (int) (offset / WINDOW_SIZE);
+		int last = (int) ((offset + length - 1) / WINDOW_SIZE);
+		ByteBuffer[] slices = new ByteBuffer[last - first + 1];
+		long pos = offset;
+		long remaining = length;
+		for (int i = first; i <= last; i++) {
+			int start = (int) (pos - i * WINDOW_SIZE);
+			int len = (int) Math.min(remaining, windows[i].capacity() - start);
+			ByteBuffer slice = windows[i].asReadOnlyBuffer();
+			slice.position(start);
+			slice.limit(start + len);
+			slices[i - first] = slice.slice();
+			pos += len;
+			remaining -= len;
+		}
+		return slices;
+	}
+
+}
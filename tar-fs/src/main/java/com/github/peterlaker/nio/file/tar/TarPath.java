@@ -2,8 +2,9 @@ package com.github.peterlaker.nio.file.tar;
 
 import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.File;
@@ -786,8 +787,8 @@ public class TarPath implements Path {
 				throw new UnsupportedOperationException();
 			}
 		}
-		TarFileAttributes attrs = tfs.getFileAttributes(getResolvedPath());
-		if ((attrs == null || !attrs.exists()) && (path.length != 1 || path[0] != '/')) {
+		if (!tfs.exists(getResolvedPath())
+				&& (path.length != 1 || path[0] != '/')) {
 			throw new NoSuchFileException(toString());
 		}
 		if (w) {
@@ -809,7 +810,8 @@ public class TarPath implements Path {
 
 	OutputStream newOutputStream(OpenOption... options) throws IOException {
 		if (options.length == 0) {
-			return tfs.newOutputStream(getResolvedPath(), CREATE_NEW, WRITE);
+			return tfs.newOutputStream(getResolvedPath(), CREATE,
+					TRUNCATE_EXISTING, WRITE);
 		}
 		return tfs.newOutputStream(getResolvedPath(), options);
 	}
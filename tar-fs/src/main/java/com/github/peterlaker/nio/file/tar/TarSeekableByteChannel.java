@@ -9,7 +9,7 @@ public class TarSeekableByteChannel implements SeekableByteChannel {
 
 	private TarEntry entry;
 	private boolean open, write;
-	private int position;
+	private long position;
 
 	public TarSeekableByteChannel(TarEntry entry, boolean write) {
 		this.entry = entry;
@@ -30,14 +30,12 @@ public class TarSeekableByteChannel implements SeekableByteChannel {
 
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		int toRead = dst.remaining();
-		if (toRead > size() - 1 - position) {
-			toRead = (int) (size() - 1 - position);
+		if (position >= size()) {
+			return -1;
 		}
-		for (int i = 0; i < toRead; i++) {
-			dst.put(entry.file[position + i]);
-		}
-		position(position() + toRead);
+		int toRead = (int) Math.min(dst.remaining(), size() - position);
+		dst.put(entry.file, (int) position, toRead);
+		position(position + toRead);
 		return toRead;
 	}
 
@@ -46,15 +44,18 @@ public class TarSeekableByteChannel implements SeekableByteChannel {
 		if (!write) {
 			throw new IOException("Channel is not writing.");
 		}
-		int toWrite = src.capacity();
-		if (toWrite > size() - 1 - position) {
-			entry.file = Arrays.copyOf(entry.file,
-					position + 1 + src.capacity());
+		int toWrite = src.remaining();
+		long end = position + toWrite;
+		if (end > Integer.MAX_VALUE - 8) {
+			throw new IOException("Entry too large to be written in memory");
 		}
-		for (int i = 0; i > toWrite; i++) {
-			entry.file[position + i] = src.get();
+		if (end > size()) {
+			entry.file = Arrays.copyOf(entry.file, (int) end);
+			entry.setSize(end);
 		}
-		position(position + toWrite);
+		src.get(entry.file, (int) position, toWrite);
+		entry.dirty = true;
+		position(end);
 		return toWrite;
 	}
 
@@ -65,11 +66,10 @@ public class TarSeekableByteChannel implements SeekableByteChannel {
 
 	@Override
 	public SeekableByteChannel position(long newPosition) throws IOException {
-		if (newPosition >= size()) {
-			position = (int) (size() - 1);
-		} else {
-			position = (int) newPosition;
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
 		}
+		position = newPosition;
 		return this;
 	}
 
@@ -83,7 +83,14 @@ public class TarSeekableByteChannel implements SeekableByteChannel {
 		if (!write) {
 			throw new IOException("Channel is not writing.");
 		}
-		entry.file = Arrays.copyOf(entry.file, (int) size);
+		if (size < size()) {
+			entry.file = Arrays.copyOf(entry.file, (int) size);
+			entry.setSize(size);
+			entry.dirty = true;
+		}
+		if (position > size) {
+			position = size;
+		}
 		return this;
 	}
 
@@ -0,0 +1,108 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read only channel over a stream, positioned forward only by skipping the
+ * stream. The archive is scanned through it, in a single pass, when its
+ * codec can't read it at an arbitrary offset.
+ */
+class TarStreamChannel implements SeekableByteChannel {
+
+	private final InputStream in;
+	private final byte[] skipBuffer = new byte[8192];
+	private long position;
+	private volatile boolean open;
+
+	TarStreamChannel(InputStream in) {
+		this.in = in;
+		open = true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		in.close();
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		int n;
+		if (dst.hasArray()) {
+			n = in.read(dst.array(), dst.arrayOffset() + dst.position(),
+					dst.remaining());
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] b = new byte[dst.remaining()];
+			n = in.read(b);
+			if (n > 0) {
+				dst.put(b, 0, n);
+			}
+		}
+		if (n > 0) {
+			position += n;
+		}
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < position) {
+			throw new IOException("Archive stream can't be read backwards");
+		}
+		while (position < newPosition) {
+			int n = in.read(skipBuffer, 0,
+					(int) Math.min(skipBuffer.length, newPosition - position));
+			if (n < 0) {
+				// positioned past the end, like a channel is
+				position = newPosition;
+				break;
+			}
+			position += n;
+		}
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
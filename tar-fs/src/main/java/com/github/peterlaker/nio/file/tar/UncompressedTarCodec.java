@@ -0,0 +1,48 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+class UncompressedTarCodec extends TarCodec {
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.SEEKABLE, Capability.APPEND);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		return Files.newInputStream(path, StandardOpenOption.READ);
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		return Files.newOutputStream(path,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	public FileChannel newAppendChannel(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	public FileChannel newOutputChannel(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+}
@@ -0,0 +1,311 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read only channel over the uncompressed data of a bzip2 file. The blocks
+ * are located by their magic and inflated on a pool of threads, ahead of the
+ * position while the file is read forward. The uncompressed offset of each
+ * block is recorded as it is inflated, a read behind then only inflates the
+ * block holding it. The magics found may be stored next to the file, for the
+ * next time it is opened.
+ */
+class Bzip2ArchiveChannel implements SeekableByteChannel {
+
+	private static final long SCAN_RANGE = 32L * 1024 * 1024;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.bz2-inflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	// bits of a block in the file, from its magic to its end and to the
+	// magic of the block after it
+	private static class Block {
+
+		final long start;
+		long end;
+		long next;
+
+		Block(long start, long end, long next) {
+			this.start = start;
+			this.end = end;
+			this.next = next;
+		}
+	}
+
+	private final FileChannel file;
+	private final ExecutorService executor;
+	private final int ahead; // blocks inflated ahead of the position
+	private final List<Block> blocks;
+	// uncompressed offsets of the blocks inflated so far, and of their end
+	private final List<Long> offsets = new ArrayList<>();
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private int current = -1; // block held in data
+	private byte[] data;
+	private long position;
+	private volatile boolean open;
+
+	Bzip2ArchiveChannel(Path path, Path indexPath, int threads,
+			boolean storeIndex) throws IOException {
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		ahead = threads * 2;
+		try {
+			List<Long> magics = Bzip2Index.load(indexPath, path);
+			if (magics == null) {
+				magics = scanMagics();
+				try {
+					if (storeIndex) {
+						Bzip2Index.store(indexPath, path, magics);
+					}
+				} catch (IOException e) {
+					// the file is scanned again when it is reopened
+				}
+			}
+			blocks = findBlocks(magics);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		offsets.add(0L);
+		open = true;
+	}
+
+	/*
+	 * Scans ranges of the file for the magics in parallel.
+	 */
+	private List<Long> scanMagics() throws IOException {
+		List<Future<List<Long>>> ranges = new ArrayList<>();
+		long size = file.size();
+		for (long from = 0; from < size; from += SCAN_RANGE) {
+			final long start = from;
+			final long end = Math.min(size, from + SCAN_RANGE);
+			ranges.add(executor.submit(new Callable<List<Long>>() {
+
+				@Override
+				public List<Long> call() throws Exception {
+					return Bzip2Blocks.scan(file, start, end);
+				}
+			}));
+		}
+		List<Long> magics = new ArrayList<>();
+		for (Future<List<Long>> range : ranges) {
+			magics.addAll(get(range));
+		}
+		return magics;
+	}
+
+	/*
+	 * A block ends at the last end of stream before the next block, or at the
+	 * next block.
+	 */
+	private static List<Block> findBlocks(List<Long> magics)
+			throws IOException {
+		List<Block> found = new ArrayList<>();
+		Block block = null;
+		for (long magic : magics) {
+			long offset = magic >>> 1;
+			if ((magic & 1) != 0) {
+				if (block != null) {
+					block.end = offset;
+				}
+				continue;
+			}
+			if (block != null) {
+				block.next = offset;
+				if (block.end < 0) {
+					block.end = offset;
+				}
+			}
+			block = new Block(offset, -1, -1);
+			found.add(block);
+		}
+		if (block != null && block.end < 0) {
+			throw new IOException("Unexpected end of BZip2 stream");
+		}
+		return found;
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private Future<byte[]> submit(final Block block) {
+		final long start = block.start;
+		final long end = block.end;
+		return executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				return Bzip2Blocks.decode(Bzip2Blocks.toStream(file, start,
+						end));
+			}
+		});
+	}
+
+	/*
+	 * Inflates the next block whose offset isn't known yet. A magic can
+	 * appear by chance in the compressed data, the block is then cut short
+	 * and fails: it is extended to the next block, then merged with it.
+	 */
+	private void inflateNext() throws IOException {
+		int index = offsets.size() - 1;
+		while (pending.size() < ahead && index + pending.size() < blocks.size()) {
+			pending.add(submit(blocks.get(index + pending.size())));
+		}
+		byte[] inflated;
+		try {
+			inflated = get(pending.poll());
+		} catch (IOException e) {
+			for (Future<byte[]> future : pending) {
+				future.cancel(false);
+			}
+			pending.clear();
+			Block block = blocks.get(index);
+			if (block.end != block.next && block.next >= 0) {
+				block.end = block.next;
+			} else if (index + 1 < blocks.size()) {
+				Block merged = blocks.remove(index + 1);
+				block.end = merged.end;
+				block.next = merged.next;
+			} else {
+				throw e;
+			}
+			return;
+		}
+		offsets.add(offsets.get(index) + inflated.length);
+		current = index;
+		data = inflated;
+	}
+
+	/*
+	 * Makes the block holding the position current, returns false past the
+	 * end.
+	 */
+	private boolean seek(long target) throws IOException {
+		while (target >= offsets.get(offsets.size() - 1)
+				&& offsets.size() <= blocks.size()) {
+			inflateNext();
+		}
+		if (current >= 0 && target >= offsets.get(current)
+				&& target < offsets.get(current + 1)) {
+			return true;
+		}
+		if (target >= offsets.get(offsets.size() - 1)) {
+			return false;
+		}
+		int low = 0;
+		int high = offsets.size() - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets.get(mid) <= target) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		data = get(submit(blocks.get(low)));
+		current = low;
+		return true;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (!seek(position)) {
+			return -1;
+		}
+		int offset = (int) (position - offsets.get(current));
+		int n = Math.min(dst.remaining(), data.length - offset);
+		dst.put(data, offset, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		while (offsets.size() <= blocks.size()) {
+			inflateNext();
+		}
+		return offsets.get(offsets.size() - 1);
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		executor.shutdownNow();
+		file.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.github.peterlaker.nio.file.tar.TarUtils;
+
+/**
+ * Bit level handling of bzip2 blocks. A bzip2 stream is a header followed by
+ * blocks that are compressed independently, each starting with a 48 bit magic
+ * and its crc, and ends with another magic and the crc of the stream. Neither
+ * the blocks nor the end of stream are aligned on bytes.
+ */
+final class Bzip2Blocks {
+
+	static final long BLOCK_MAGIC = 0x314159265359L;
+	static final long EOS_MAGIC = 0x177245385090L;
+	static final int MAGIC_BITS = 48;
+
+	private Bzip2Blocks() {
+	}
+
+	/**
+	 * Writes bits most significant first, the way bzip2 packs them.
+	 */
+	static class BitWriter {
+
+		private final OutputStream out;
+		private long buffer;
+		private int count;
+
+		BitWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		void write(long value, int n) throws IOException {
+			buffer = buffer << n | value & (1L << n) - 1;
+			count += n;
+			while (count >= 8) {
+				out.write((int) (buffer >>> count - 8));
+				count -= 8;
+			}
+		}
+
+		void write(byte[] src, long offset, long n) throws IOException {
+			long bit = offset;
+			long end = offset + n;
+			if ((bit & 7) == 0 && count == 0) {
+				int length = (int) (n >>> 3);
+				out.write(src, (int) (bit >>> 3), length);
+				bit += (long) length << 3;
+			}
+			while (end - bit >= 32) {
+				write(read(src, bit, 32), 32);
+				bit += 32;
+			}
+			if (end > bit) {
+				write(read(src, bit, (int) (end - bit)), (int) (end - bit));
+			}
+		}
+
+		/**
+		 * Writes the end of stream and pads its last byte with zeros.
+		 */
+		void finish(int crc) throws IOException {
+			write(EOS_MAGIC >>> 24, 24);
+			write(EOS_MAGIC & 0xffffff, 24);
+			write(crc & 0xffffffffL, 32);
+			if (count > 0) {
+				write(0, 8 - count);
+			}
+		}
+	}
+
+	/**
+	 * Reads up to 32 bits at the bit offset.
+	 */
+	static long read(byte[] src, long offset, int n) {
+		long value = 0;
+		int index = (int) (offset >>> 3);
+		int skip = (int) (offset & 7);
+		int available = 0;
+		while (available < skip + n) {
+			value = value << 8 | (index < src.length ? src[index] & 0xff : 0);
+			index++;
+			available += 8;
+		}
+		return value >>> available - skip - n & (1L << n) - 1;
+	}
+
+	static long readMagic(byte[] src, long offset) {
+		return read(src, offset, 24) << 24 | read(src, offset + 24, 24);
+	}
+
+	/**
+	 * Finds the block and end of stream magics starting in the byte range,
+	 * returned as their bit offset, shifted left once and with the low bit set
+	 * for an end of stream.
+	 */
+	static List<Long> scan(FileChannel file, long from, long to)
+			throws IOException {
+		List<Long> found = new ArrayList<>();
+		long limit = Math.min(file.size(), to + MAGIC_BITS / 8);
+		ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+		long window = 0;
+		long bits = from << 3; // bits read so far
+		long position = from;
+		while (position < limit) {
+			bb.clear();
+			bb.limit((int) Math.min(bb.capacity(), limit - position));
+			int n = file.read(bb, position);
+			if (n <= 0) {
+				break;
+			}
+			position += n;
+			byte[] data = bb.array();
+			for (int i = 0; i < n; i++) {
+				window = window << 8 | data[i] & 0xff;
+				bits += 8;
+				if (bits - (from << 3) < MAGIC_BITS) {
+					continue;
+				}
+				for (int shift = 7; shift >= 0; shift--) {
+					long candidate = window >>> shift & 0xffffffffffffL;
+					long start = bits - shift - MAGIC_BITS;
+					if (start < from << 3 || start >= to << 3) {
+						continue;
+					}
+					if (candidate == BLOCK_MAGIC) {
+						found.add(start << 1);
+					} else if (candidate == EOS_MAGIC) {
+						found.add(start << 1 | 1);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Reads the bits of a block from the file and makes a stream of it alone,
+	 * its crc being the one of the block.
+	 */
+	static byte[] toStream(FileChannel file, long start, long end)
+			throws IOException {
+		long first = start >>> 3;
+		byte[] data = new byte[(int) ((end + 7 >>> 3) - first)];
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		while (bb.hasRemaining()) {
+			if (file.read(bb, first + bb.position()) < 0) {
+				throw new IOException("Unexpected end of BZip2 stream");
+			}
+		}
+		long offset = start & 7;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 16);
+		BitWriter writer = new BitWriter(out);
+		writer.write('B', 8);
+		writer.write('Z', 8);
+		writer.write('h', 8);
+		writer.write('9', 8);
+		writer.write(data, offset, end - start);
+		writer.finish((int) read(data, offset + MAGIC_BITS, 32));
+		return out.toByteArray();
+	}
+
+	static byte[] decode(byte[] stream) throws IOException {
+		return TarUtils.readAllBytes(new BZip2CompressorInputStream(
+				new ByteArrayInputStream(stream), false));
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import com.github.peterlaker.nio.file.tar.TarCodec;
+import com.github.peterlaker.nio.file.tar.TarIndexFile;
+
+class Bzip2Codec extends TarCodec {
+
+	private final int blockSize; // bzip2 block size of the written archive
+	private final int threads; // threads compressing and reading the archive
+	private final boolean storeIndex; // never when read only
+	private final Map<String, ?> env; // where the index is kept
+
+	Bzip2Codec(Map<String, ?> env) {
+		blockSize = env.containsKey("compression.level") ? Integer
+				.parseInt(env.get("compression.level").toString())
+				: BZip2CompressorOutputStream.MAX_BLOCKSIZE;
+		threads = env.containsKey("compression.threads") ? Integer
+				.parseInt(env.get("compression.threads").toString()) : Runtime
+				.getRuntime().availableProcessors();
+		storeIndex = TarIndexFile.isIndexed(env)
+				&& !TarIndexFile.isReadOnly(env);
+		this.env = env;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return threads > 1 ? EnumSet.of(Capability.SEEKABLE,
+				Capability.PARALLEL) : EnumSet.of(Capability.SEEKABLE);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		return new BZip2CompressorInputStream(Files.newInputStream(path,
+				StandardOpenOption.READ), true);
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return new Bzip2ArchiveChannel(path, TarIndexFile.resolve(path,
+				env, Bzip2Index.SUFFIX), Math.max(1, threads), storeIndex);
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		OutputStream os = new BufferedOutputStream(Files.newOutputStream(path,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		if (threads > 1) {
+			return new ParallelBzip2OutputStream(os, blockSize, threads);
+		}
+		return new BZip2CompressorOutputStream(os, blockSize);
+	}
+
+}
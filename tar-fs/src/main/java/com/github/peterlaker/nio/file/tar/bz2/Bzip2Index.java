@@ -0,0 +1,60 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.peterlaker.nio.file.tar.TarIndexFile;
+
+/**
+ * Magics found in a bzip2 file, stored next to it so that it isn't scanned
+ * again when it is reopened.
+ */
+final class Bzip2Index {
+
+	static final String SUFFIX = ".bz2idx";
+
+	private static final int MAGIC = 0x627a6978; // "bzix"
+	private static final int VERSION = 3;
+
+	private Bzip2Index() {
+	}
+
+	static List<Long> load(Path index, Path file) {
+		ByteBuffer bb = TarIndexFile.load(index, file, MAGIC, VERSION);
+		if (bb == null) {
+			return null;
+		}
+		try {
+			int count = bb.getInt();
+			List<Long> magics = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				magics.add(bb.getLong());
+			}
+			return magics;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	static void store(Path index, Path file, final List<Long> magics)
+			throws IOException {
+		TarIndexFile.store(index, file, MAGIC, VERSION,
+				new TarIndexFile.Writer() {
+
+					@Override
+					public void writeTo(DataOutputStream out)
+							throws IOException {
+						out.writeInt(magics.size());
+						for (long magic : magics) {
+							out.writeLong(magic);
+						}
+					}
+				});
+	}
+
+}
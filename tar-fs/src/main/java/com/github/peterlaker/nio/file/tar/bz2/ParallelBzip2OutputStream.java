@@ -0,0 +1,157 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * Bzip2 output stream compressing blocks of its input on a pool of threads.
+ * Each chunk of input is small enough to make a single block even when the
+ * first run length encoding of bzip2 expands it, it is compressed as a stream
+ * of its own and its block is then copied bit by bit into the output stream.
+ * The crc of the stream is combined from the crc of each block.
+ */
+class ParallelBzip2OutputStream extends OutputStream {
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.bz2-deflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final Bzip2Blocks.BitWriter out;
+	private final OutputStream os;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] buffer;
+	private int count;
+	private int crc;
+	private boolean closed;
+
+	ParallelBzip2OutputStream(OutputStream os, int blockSize, int threads)
+			throws IOException {
+		this.os = os;
+		this.blockSize = blockSize;
+		// the run length encoding turns 4 bytes into 5 at worst
+		buffer = new byte[blockSize * 100000 / 5 * 4 - 1000];
+		maxPending = threads * 2;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		out = new Bzip2Blocks.BitWriter(os);
+		out.write('B', 8);
+		out.write('Z', 8);
+		out.write('h', 8);
+		out.write('0' + blockSize, 8);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			submit();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				submit();
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submit() throws IOException {
+		final byte[] input = buffer;
+		final int length = count;
+		pending.add(executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(
+						length / 3 + 64);
+				try (OutputStream bz = new BZip2CompressorOutputStream(bos,
+						blockSize)) {
+					bz.write(input, 0, length);
+				}
+				return bos.toByteArray();
+			}
+		}));
+		buffer = new byte[buffer.length];
+		count = 0;
+		while (pending.size() > maxPending) {
+			writeBlock(pending.poll());
+		}
+	}
+
+	/*
+	 * Copies the block of a stream holding a single block, from the end of
+	 * the stream header to the end of stream magic found before the padding.
+	 */
+	private void writeBlock(Future<byte[]> future) throws IOException {
+		byte[] stream;
+		try {
+			stream = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		long bits = (long) stream.length * 8;
+		for (int padding = 0; padding < 8; padding++) {
+			long eos = bits - padding - 32 - Bzip2Blocks.MAGIC_BITS;
+			if (Bzip2Blocks.readMagic(stream, eos) == Bzip2Blocks.EOS_MAGIC) {
+				int blockCrc = (int) Bzip2Blocks.read(stream, 32
+						+ Bzip2Blocks.MAGIC_BITS, 32);
+				out.write(stream, 32, eos - 32);
+				crc = (crc << 1 | crc >>> 31) ^ blockCrc;
+				return;
+			}
+		}
+		throw new IOException("Invalid BZip2 block");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (count > 0) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeBlock(pending.poll());
+			}
+			out.finish(crc);
+			os.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
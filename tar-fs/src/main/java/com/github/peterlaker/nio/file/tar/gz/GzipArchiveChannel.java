@@ -0,0 +1,173 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only channel over the uncompressed data of a gzip file. A read far
+ * from the current position resumes inflating at the nearest checkpoint of
+ * the index, the index is built while the file is first read through. It is
+ * stored next to the file once the end is reached, when asked to.
+ */
+class GzipArchiveChannel implements SeekableByteChannel {
+
+	private final Path path;
+	private final Path indexPath;
+	private final boolean storeIndex;
+	private final FileChannel file;
+	private final GzipIndex index;
+	private GzipInflater inflater;
+	private long position;
+	private volatile boolean open;
+
+	GzipArchiveChannel(Path path, Path indexPath, boolean storeIndex)
+			throws IOException {
+		this.path = path;
+		this.indexPath = indexPath;
+		this.storeIndex = storeIndex;
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		GzipIndex stored = GzipIndex.load(indexPath, path);
+		index = stored != null ? stored : new GzipIndex(
+				GzipIndex.DEFAULT_SPAN);
+		restart();
+		open = true;
+	}
+
+	private void restart() {
+		inflater = new GzipInflater(file);
+		if (!index.isComplete()) {
+			inflater.setIndex(index);
+		}
+	}
+
+	/*
+	 * Moves the inflater to the position, inflating forward from where it is
+	 * unless a checkpoint is closer.
+	 */
+	private void seek(long target) throws IOException {
+		long current = inflater.position();
+		GzipIndex.Point point = index.find(target);
+		if (point != null && (target < current || point.out > current)) {
+			inflater.reset(point);
+		} else if (target < current) {
+			restart();
+		}
+		inflater.skip(target - inflater.position());
+		checkComplete();
+	}
+
+	private void checkComplete() {
+		if (!index.isComplete() && inflater.isFinished()) {
+			index.complete(inflater.position());
+			inflater.setIndex(null);
+			if (!storeIndex) {
+				return;
+			}
+			try {
+				index.store(indexPath, path);
+			} catch (IOException e) {
+				// the index is only kept in memory
+			}
+		}
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		if (inflater.position() != position) {
+			seek(position);
+		}
+		int n;
+		if (dst.hasArray()) {
+			n = inflater.read(dst.array(), dst.arrayOffset() + dst.position(),
+					dst.remaining());
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] buffer = new byte[Math.min(dst.remaining(), 64 * 1024)];
+			n = inflater.read(buffer, 0, buffer.length);
+			if (n > 0) {
+				dst.put(buffer, 0, n);
+			}
+		}
+		if (n < 0) {
+			checkComplete();
+			return -1;
+		}
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		if (!index.isComplete()) {
+			seek(Long.MAX_VALUE);
+		}
+		return index.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (open && storeIndex && !index.isComplete()) {
+			// the archive may end before the file does, what is left of it
+			// is inflated for the index to be complete and stored
+			try {
+				seek(Long.MAX_VALUE);
+			} catch (IOException e) {
+				// the index isn't stored
+			}
+		}
+		open = false;
+		file.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
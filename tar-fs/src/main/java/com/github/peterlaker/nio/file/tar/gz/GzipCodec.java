@@ -0,0 +1,73 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.peterlaker.nio.file.tar.TarCodec;
+import com.github.peterlaker.nio.file.tar.TarIndexFile;
+
+class GzipCodec extends TarCodec {
+
+	private final int level; // deflate level of the written archive
+	private final int threads; // threads compressing the written archive
+	private final boolean storeIndex; // never when read only
+	private final Map<String, ?> env; // where the index is kept
+
+	GzipCodec(Map<String, ?> env) {
+		level = env.containsKey("compression.level") ? Integer.parseInt(env
+				.get("compression.level").toString())
+				: Deflater.DEFAULT_COMPRESSION;
+		threads = env.containsKey("compression.threads") ? Integer
+				.parseInt(env.get("compression.threads").toString()) : Runtime
+				.getRuntime().availableProcessors();
+		storeIndex = TarIndexFile.isIndexed(env)
+				&& !TarIndexFile.isReadOnly(env);
+		this.env = env;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return threads > 1 ? EnumSet.of(Capability.SEEKABLE,
+				Capability.PARALLEL) : EnumSet.of(Capability.SEEKABLE);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		return new GZIPInputStream(Files.newInputStream(path,
+				StandardOpenOption.READ));
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return new GzipArchiveChannel(path, TarIndexFile.resolve(path,
+				env, GzipIndex.SUFFIX), storeIndex);
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		OutputStream os = new BufferedOutputStream(Files.newOutputStream(path,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		if (threads > 1) {
+			return new ParallelGzipOutputStream(os, level, threads);
+		}
+		final int deflateLevel = level;
+		return new GZIPOutputStream(os) {
+			{
+				def.setLevel(deflateLevel);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import com.github.peterlaker.nio.file.tar.TarIndexFile;
+
+/**
+ * Checkpoints of a gzip file from which inflating can be resumed, one at the
+ * first deflate block after every span of uncompressed data. The index is
+ * built while the archive is first read through and may be stored next to
+ * it.
+ */
+class GzipIndex {
+
+	static final String SUFFIX = ".gzidx";
+
+	static final long DEFAULT_SPAN = 4L * 1024 * 1024;
+
+	private static final int MAGIC = 0x677a6978; // "gzix"
+	private static final int VERSION = 3;
+
+	static class Point {
+
+		final long in; // bit offset of the block in the gzip file
+		final long out; // offset of the block in the uncompressed data
+		private final byte[] window; // last 32k inflated, deflated
+
+		Point(long in, long out, byte[] window) {
+			this.in = in;
+			this.out = out;
+			this.window = window;
+		}
+
+		byte[] window() throws IOException {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(window);
+				byte[] data = new byte[GzipInflater.WINDOW_SIZE];
+				int n = 0;
+				while (n < data.length && !inflater.finished()) {
+					n += inflater.inflate(data, n, data.length - n);
+				}
+				return data;
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			} finally {
+				inflater.end();
+			}
+		}
+
+	}
+
+	private final long span;
+	private final List<Point> points = new ArrayList<>();
+	private long size = -1; // uncompressed size, known once complete
+
+	GzipIndex(long span) {
+		this.span = span;
+	}
+
+	boolean isComplete() {
+		return size >= 0;
+	}
+
+	long size() {
+		return size;
+	}
+
+	void complete(long size) {
+		this.size = size;
+	}
+
+	boolean wants(long out) {
+		long last = points.isEmpty() ? 0 : points.get(points.size() - 1).out;
+		return size < 0 && out - last >= span;
+	}
+
+	void add(long in, long out, byte[] window) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(window);
+			deflater.finish();
+			byte[] buffer = new byte[window.length + 64];
+			int n = 0;
+			while (!deflater.finished()) {
+				if (n == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				n += deflater.deflate(buffer, n, buffer.length - n);
+			}
+			points.add(new Point(in, out, Arrays.copyOf(buffer, n)));
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Returns the last checkpoint at or before the position, null if it is
+	 * before the first one.
+	 */
+	Point find(long position) {
+		int low = 0;
+		int high = points.size() - 1;
+		Point found = null;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Point point = points.get(mid);
+			if (point.out <= position) {
+				found = point;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	static GzipIndex load(Path file, Path archive) {
+		ByteBuffer bb = TarIndexFile.load(file, archive, MAGIC, VERSION);
+		if (bb == null) {
+			return null;
+		}
+		try {
+			GzipIndex index = new GzipIndex(bb.getLong());
+			index.size = bb.getLong();
+			for (int count = bb.getInt(); count > 0; count--) {
+				long pointIn = bb.getLong();
+				long pointOut = bb.getLong();
+				byte[] window = new byte[bb.getInt()];
+				bb.get(window);
+				index.points.add(new Point(pointIn, pointOut, window));
+			}
+			return index.isComplete() ? index : null;
+		} catch (BufferUnderflowException | NegativeArraySizeException e) {
+			return null;
+		}
+	}
+
+	void store(Path file, Path archive) throws IOException {
+		TarIndexFile.store(file, archive, MAGIC, VERSION,
+				new TarIndexFile.Writer() {
+
+					@Override
+					public void writeTo(DataOutputStream out)
+							throws IOException {
+						out.writeLong(span);
+						out.writeLong(size);
+						out.writeInt(points.size());
+						for (Point point : points) {
+							out.writeLong(point.in);
+							out.writeLong(point.out);
+							out.writeInt(point.window.length);
+							out.write(point.window);
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,458 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+/**
+ * Inflater of a gzip file that can resume at any deflate block, given the bit
+ * offset of the block and the 32k of data that were inflated before it. The
+ * inflater of java.util.zip can only start on a byte boundary, which is why
+ * the deflate format is decoded here. Concatenated gzip members are read as a
+ * single stream, their trailers aren't checked.
+ */
+class GzipInflater {
+
+	static final int WINDOW_SIZE = 32 * 1024;
+
+	private static final int RING_SIZE = 128 * 1024;
+	private static final int RING_MASK = RING_SIZE - 1;
+	private static final int INPUT_SIZE = 64 * 1024;
+
+	private static final int MEMBER = 0; // before a gzip header
+	private static final int BLOCK = 1; // before a deflate block header
+	private static final int STORED = 2; // in a stored block
+	private static final int CODES = 3; // in a compressed block
+	private static final int TRAILER = 4; // before a gzip trailer
+	private static final int DONE = 5;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11,
+			13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131,
+			163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1,
+			1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25,
+			33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049,
+			3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4,
+			4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9,
+			6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+	private static final int[] FIXED_LITERALS;
+	private static final int[] FIXED_DISTANCES;
+
+	static {
+		byte[] lengths = new byte[288];
+		for (int i = 0; i < 288; i++) {
+			lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+		}
+		FIXED_LITERALS = buildTable(lengths, 0, 288);
+		byte[] distances = new byte[30];
+		for (int i = 0; i < 30; i++) {
+			distances[i] = 5;
+		}
+		FIXED_DISTANCES = buildTable(distances, 0, 30);
+	}
+
+	private final FileChannel in;
+	private final byte[] input = new byte[INPUT_SIZE];
+	private long inputOffset; // offset in the file of input[0]
+	private int inputPos;
+	private int inputLen;
+	private long bitBuf;
+	private int bitCount;
+
+	private final byte[] ring = new byte[RING_SIZE];
+	private long out; // bytes inflated
+	private long consumed; // bytes handed out
+
+	private int state;
+	private boolean lastBlock;
+	private int storedLeft;
+	private int[] literals;
+	private int[] distances;
+	private int copyLength;
+	private int copyDistance;
+
+	private GzipIndex index; // receives the checkpoints while it is built
+
+	GzipInflater(FileChannel in) {
+		this.in = in;
+		state = MEMBER;
+	}
+
+	/**
+	 * Records a checkpoint in the index at each block found past its last
+	 * checkpoint and its span.
+	 */
+	void setIndex(GzipIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Resumes inflating at a checkpoint of the index.
+	 */
+	void reset(GzipIndex.Point point) throws IOException {
+		inputOffset = point.in >>> 3;
+		inputPos = 0;
+		inputLen = 0;
+		bitBuf = 0;
+		bitCount = 0;
+		fill();
+		dropBits((int) (point.in & 7));
+		byte[] window = point.window();
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			ring[(int) (point.out - WINDOW_SIZE + i) & RING_MASK] = window[i];
+		}
+		out = point.out;
+		consumed = point.out;
+		copyLength = 0;
+		state = BLOCK;
+	}
+
+	long position() {
+		return consumed;
+	}
+
+	boolean isFinished() {
+		return state == DONE && consumed == out;
+	}
+
+	int read(byte[] b, int off, int len) throws IOException {
+		if (consumed == out) {
+			inflate(consumed + RING_SIZE);
+			if (consumed == out) {
+				return -1;
+			}
+		}
+		int n = (int) Math.min(len, out - consumed);
+		int start = (int) consumed & RING_MASK;
+		int first = Math.min(n, RING_SIZE - start);
+		System.arraycopy(ring, start, b, off, first);
+		System.arraycopy(ring, 0, b, off + first, n - first);
+		consumed += n;
+		return n;
+	}
+
+	long skip(long n) throws IOException {
+		long target = consumed + n;
+		while (consumed < target) {
+			if (consumed == out) {
+				inflate(Math.min(target, consumed + RING_SIZE));
+				if (consumed == out) {
+					break;
+				}
+			}
+			consumed = Math.min(target, out);
+		}
+		return n - (target - consumed);
+	}
+
+	/*
+	 * Inflates until the limit is reached or the stream ends, the ring never
+	 * holds more than what is left to be handed out.
+	 */
+	private void inflate(long limit) throws IOException {
+		while (out < limit) {
+			switch (state) {
+			case MEMBER:
+				readMemberHeader();
+				state = BLOCK;
+				break;
+			case BLOCK:
+				if (index != null && index.wants(out)) {
+					index.add(bitPosition(), out, window());
+				}
+				readBlockHeader();
+				break;
+			case STORED:
+				inflateStored(limit);
+				break;
+			case CODES:
+				inflateCodes(limit);
+				break;
+			case TRAILER:
+				readTrailer();
+				break;
+			default:
+				return;
+			}
+		}
+	}
+
+	private long bitPosition() {
+		return (inputOffset + inputPos) * 8 - bitCount;
+	}
+
+	private byte[] window() {
+		byte[] window = new byte[WINDOW_SIZE];
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			window[i] = ring[(int) (out - WINDOW_SIZE + i) & RING_MASK];
+		}
+		return window;
+	}
+
+	private void readMemberHeader() throws IOException {
+		if (bits(16) != 0x8b1f || bits(8) != 8) {
+			throw new ZipException("Not in GZIP format");
+		}
+		int flags = bits(8);
+		bits(16); // mtime
+		bits(16);
+		bits(16); // xfl, os
+		if ((flags & 4) != 0) {
+			for (int n = bits(16); n > 0; n--) {
+				bits(8);
+			}
+		}
+		if ((flags & 8) != 0) {
+			while (bits(8) != 0) {
+				// file name
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (bits(8) != 0) {
+				// comment
+			}
+		}
+		if ((flags & 2) != 0) {
+			bits(16); // header crc
+		}
+	}
+
+	private void readBlockHeader() throws IOException {
+		lastBlock = bits(1) == 1;
+		int type = bits(2);
+		if (type == 0) {
+			dropBits(bitCount & 7);
+			int length = bits(16);
+			if (bits(16) != (~length & 0xffff)) {
+				throw new ZipException("Invalid stored block length");
+			}
+			storedLeft = length;
+			state = STORED;
+		} else if (type == 1) {
+			literals = FIXED_LITERALS;
+			distances = FIXED_DISTANCES;
+			state = CODES;
+		} else if (type == 2) {
+			readDynamicTables();
+			state = CODES;
+		} else {
+			throw new ZipException("Invalid block type");
+		}
+	}
+
+	private void readDynamicTables() throws IOException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeLengthCount = bits(4) + 4;
+		byte[] codeLengths = new byte[19];
+		for (int i = 0; i < codeLengthCount; i++) {
+			codeLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+		}
+		int[] codeLengthTable = buildTable(codeLengths, 0, 19);
+		byte[] lengths = new byte[literalCount + distanceCount];
+		int i = 0;
+		while (i < lengths.length) {
+			int symbol = decode(codeLengthTable);
+			if (symbol < 16) {
+				lengths[i++] = (byte) symbol;
+				continue;
+			}
+			int value = 0;
+			int repeat;
+			if (symbol == 16) {
+				if (i == 0) {
+					throw new ZipException("Invalid code lengths");
+				}
+				value = lengths[i - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17) {
+				repeat = 3 + bits(3);
+			} else {
+				repeat = 11 + bits(7);
+			}
+			if (i + repeat > lengths.length) {
+				throw new ZipException("Invalid code lengths");
+			}
+			while (repeat-- > 0) {
+				lengths[i++] = (byte) value;
+			}
+		}
+		if (lengths[256] == 0) {
+			throw new ZipException("Missing end of block code");
+		}
+		literals = buildTable(lengths, 0, literalCount);
+		distances = buildTable(lengths, literalCount, distanceCount);
+	}
+
+	private void inflateStored(long limit) throws IOException {
+		while (storedLeft > 0 && out < limit) {
+			int b;
+			if (bitCount >= 8) {
+				b = (int) bitBuf & 0xff;
+				dropBits(8);
+			} else {
+				if (inputPos == inputLen && !readInput()) {
+					throw new EOFException("Unexpected end of GZIP stream");
+				}
+				b = input[inputPos++];
+			}
+			ring[(int) out & RING_MASK] = (byte) b;
+			out++;
+			storedLeft--;
+		}
+		if (storedLeft == 0) {
+			state = lastBlock ? TRAILER : BLOCK;
+		}
+	}
+
+	private void inflateCodes(long limit) throws IOException {
+		byte[] ring = this.ring;
+		int[] literals = this.literals;
+		int literalMask = literals.length - 1;
+		while (out < limit) {
+			if (copyLength > 0) {
+				int n = (int) Math.min(copyLength, limit - out);
+				for (int i = 0; i < n; i++) {
+					ring[(int) out & RING_MASK] = ring[(int) (out - copyDistance)
+							& RING_MASK];
+					out++;
+				}
+				copyLength -= n;
+				continue;
+			}
+			if (bitCount < 48) {
+				fill();
+			}
+			int entry = literals[(int) bitBuf & literalMask];
+			int length = entry & 15;
+			if (length == 0 || length > bitCount) {
+				throw new ZipException("Invalid literal/length code");
+			}
+			bitBuf >>>= length;
+			bitCount -= length;
+			int symbol = entry >>> 4;
+			if (symbol < 256) {
+				ring[(int) out & RING_MASK] = (byte) symbol;
+				out++;
+			} else if (symbol == 256) {
+				state = lastBlock ? TRAILER : BLOCK;
+				return;
+			} else {
+				symbol -= 257;
+				if (symbol >= 29) {
+					throw new ZipException("Invalid length code");
+				}
+				copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+				symbol = decode(distances);
+				if (symbol >= 30) {
+					throw new ZipException("Invalid distance code");
+				}
+				copyDistance = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+			}
+		}
+	}
+
+	private void readTrailer() throws IOException {
+		dropBits(bitCount & 7);
+		bits(16); // crc
+		bits(16);
+		bits(16); // size
+		bits(16);
+		fill();
+		// another member may follow, anything else ends the stream
+		state = bitCount >= 16 && (bitBuf & 0xffff) == 0x8b1f ? MEMBER : DONE;
+	}
+
+	private int decode(int[] table) throws IOException {
+		if (bitCount < 15) {
+			fill();
+		}
+		int entry = table[(int) bitBuf & (table.length - 1)];
+		int length = entry & 15;
+		if (length == 0 || length > bitCount) {
+			throw new ZipException("Invalid huffman code");
+		}
+		dropBits(length);
+		return entry >>> 4;
+	}
+
+	private int bits(int n) throws IOException {
+		if (bitCount < n) {
+			fill();
+			if (bitCount < n) {
+				throw new EOFException("Unexpected end of GZIP stream");
+			}
+		}
+		int value = (int) bitBuf & ((1 << n) - 1);
+		dropBits(n);
+		return value;
+	}
+
+	private void dropBits(int n) {
+		bitBuf >>>= n;
+		bitCount -= n;
+	}
+
+	private void fill() throws IOException {
+		while (bitCount <= 56) {
+			if (inputPos == inputLen && !readInput()) {
+				return;
+			}
+			bitBuf |= (input[inputPos++] & 0xffL) << bitCount;
+			bitCount += 8;
+		}
+	}
+
+	private boolean readInput() throws IOException {
+		inputOffset += inputLen;
+		inputPos = 0;
+		inputLen = 0;
+		ByteBuffer bb = ByteBuffer.wrap(input);
+		int n = in.read(bb, inputOffset);
+		if (n <= 0) {
+			return false;
+		}
+		inputLen = n;
+		return true;
+	}
+
+	/*
+	 * Builds the lookup table of a canonical huffman code, indexed by the
+	 * next bits of the input. Each entry holds the symbol and the length of
+	 * its code, zero where no code matches.
+	 */
+	private static int[] buildTable(byte[] lengths, int off, int count) {
+		int[] lengthCount = new int[16];
+		int maxLength = 1;
+		for (int i = 0; i < count; i++) {
+			lengthCount[lengths[off + i]]++;
+			maxLength = Math.max(maxLength, lengths[off + i]);
+		}
+		lengthCount[0] = 0;
+		int[] nextCode = new int[16];
+		int code = 0;
+		for (int len = 1; len < 16; len++) {
+			code = (code + lengthCount[len - 1]) << 1;
+			nextCode[len] = code;
+		}
+		int[] table = new int[1 << maxLength];
+		for (int i = 0; i < count; i++) {
+			int len = lengths[off + i];
+			if (len == 0) {
+				continue;
+			}
+			int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+			for (int j = reversed; j < table.length; j += 1 << len) {
+				table[j] = i << 4 | len;
+			}
+		}
+		return table;
+	}
+
+}
@@ -0,0 +1,246 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream compressing blocks of its input on a pool of threads,
+ * the way pigz does. Each block is deflated with the 32k of input before it
+ * as a preset dictionary and ends on a byte boundary with a sync flush, so
+ * that the compressed blocks are simply concatenated into a single gzip
+ * member. The crc of the member is combined from the crc of each block.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+	static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, 0 };
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.gz-deflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private static class Block {
+
+		final byte[] data; // deflated
+		final int length; // inflated length
+		final long crc;
+
+		Block(byte[] data, int length, long crc) {
+			this.data = data;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+	private final OutputStream out;
+	private final int level;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+	private byte[] buffer = new byte[BLOCK_SIZE];
+	private int count;
+	private byte[] previous; // input of the block before, for its dictionary
+	private long crc;
+	private long size;
+	private boolean closed;
+
+	ParallelGzipOutputStream(OutputStream out, int level, int threads)
+			throws IOException {
+		this.out = out;
+		this.level = level;
+		maxPending = threads * 2;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			submit(false);
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				submit(false);
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submit(final boolean last) throws IOException {
+		final byte[] input = count == buffer.length ? buffer : Arrays.copyOf(
+				buffer, count);
+		final byte[] dictionary = previous;
+		pending.add(executor.submit(new Callable<Block>() {
+
+			@Override
+			public Block call() throws Exception {
+				return deflate(input, dictionary, last);
+			}
+		}));
+		size += input.length;
+		previous = input;
+		buffer = new byte[BLOCK_SIZE];
+		count = 0;
+		while (pending.size() > (last ? 0 : maxPending)) {
+			writeBlock(pending.poll());
+		}
+	}
+
+	private Block deflate(byte[] input, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary, dictionary.length
+						- DICTIONARY_SIZE, DICTIONARY_SIZE);
+			}
+			deflater.setInput(input);
+			if (last) {
+				deflater.finish();
+			}
+			byte[] output = new byte[input.length + input.length / 1000 + 64];
+			int n = 0;
+			while (true) {
+				if (n == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				n += deflater.deflate(output, n, output.length - n,
+						last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				// a flush is complete when it leaves room in the output
+				if (last ? deflater.finished() : n < output.length) {
+					break;
+				}
+			}
+			CRC32 checksum = new CRC32();
+			checksum.update(input, 0, input.length);
+			return new Block(Arrays.copyOf(output, n), input.length,
+					checksum.getValue());
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeBlock(Future<Block> future) throws IOException {
+		Block block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		out.write(block.data);
+		crc = crc32Combine(crc, block.crc, block.length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			submit(true);
+			writeInt((int) crc);
+			writeInt((int) size);
+			out.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void writeInt(int i) throws IOException {
+		out.write(i & 0xff);
+		out.write(i >>> 8 & 0xff);
+		out.write(i >>> 16 & 0xff);
+		out.write(i >>> 24 & 0xff);
+	}
+
+	/*
+	 * Combines the crc of two consecutive sequences, the second one being len2
+	 * bytes long, like crc32_combine of zlib.
+	 */
+	static long crc32Combine(long crc1, long crc2, long len2) {
+		if (len2 <= 0) {
+			return crc1;
+		}
+		long[] even = new long[32];
+		long[] odd = new long[32];
+		// operator for one zero bit
+		odd[0] = 0xedb88320L;
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd); // two zero bits
+		gf2MatrixSquare(odd, even); // four zero bits
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len2 >>= 1;
+			if (len2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len2 >>= 1;
+		} while (len2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec) {
+		long sum = 0;
+		int i = 0;
+		while (vec != 0) {
+			if ((vec & 1) != 0) {
+				sum ^= mat[i];
+			}
+			vec >>= 1;
+			i++;
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+
+}
@@ -1,11 +1,9 @@
 package com.github.peterlaker.nio.file.tar.gz;
 
-import java.io.IOException;
-import java.nio.file.Path;
 import java.util.Map;
 
-import com.github.peterlaker.nio.file.tar.AbstractTarFileSystem;
 import com.github.peterlaker.nio.file.tar.AbstractTarFileSystemProvider;
+import com.github.peterlaker.nio.file.tar.TarCodec;
 
 public class TarGzipFileSystemProvider extends AbstractTarFileSystemProvider {
 
@@ -15,10 +13,8 @@ public class TarGzipFileSystemProvider extends AbstractTarFileSystemProvider {
 	}
 
 	@Override
-	protected AbstractTarFileSystem newInstance(
-			AbstractTarFileSystemProvider provider, Path path,
-			Map<String, ?> env) throws IOException {
-		return new TarGzipFileSystem(provider, path, env);
+	protected TarCodec newCodec(Map<String, ?> env) {
+		return new GzipCodec(env);
 	}
 
 }
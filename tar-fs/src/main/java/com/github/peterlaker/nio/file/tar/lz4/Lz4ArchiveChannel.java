@@ -0,0 +1,338 @@
+package com.github.peterlaker.nio.file.tar.lz4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read only channel over the uncompressed data of an lz4 file whose frames
+ * hold independent blocks. The blocks are located from their headers, which
+ * give their compressed size, and are inflated on a pool of threads ahead of
+ * the position while the file is read forward. The uncompressed offset of
+ * each block is recorded as it is inflated, a read behind then only inflates
+ * the block holding it.
+ */
+class Lz4ArchiveChannel implements SeekableByteChannel {
+
+	private static final int FRAME_MAGIC = 0x184D2204;
+	private static final int SKIPPABLE_MAGIC = 0x184D2A50; // low 4 bits free
+	private static final int VERSION_MASK = 0xC0;
+	private static final int VERSION = 0x40;
+	private static final int BLOCK_INDEPENDENCE = 0x20;
+	private static final int BLOCK_CHECKSUM = 0x10;
+	private static final int CONTENT_SIZE = 0x08;
+	private static final int CONTENT_CHECKSUM = 0x04;
+	private static final int DICTIONARY_ID = 0x01;
+	private static final int UNCOMPRESSED = 0x80000000;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.lz4-inflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	// compressed data of a block in the file
+	private static class Block {
+
+		final long start;
+		final int length;
+		final int maxSize; // uncompressed
+		final boolean compressed;
+
+		Block(long start, int length, int maxSize, boolean compressed) {
+			this.start = start;
+			this.length = length;
+			this.maxSize = maxSize;
+			this.compressed = compressed;
+		}
+	}
+
+	private final FileChannel file;
+	private final ExecutorService executor;
+	private final int ahead; // blocks inflated ahead of the position
+	private final List<Block> blocks;
+	// uncompressed offsets of the blocks inflated so far, and of their end
+	private final List<Long> offsets = new ArrayList<>();
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private int current = -1; // block held in data
+	private byte[] data;
+	private long position;
+	private volatile boolean open;
+
+	private Lz4ArchiveChannel(FileChannel file, List<Block> blocks,
+			int threads) {
+		this.file = file;
+		this.blocks = blocks;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		ahead = threads * 2;
+		offsets.add(0L);
+		open = true;
+	}
+
+	/**
+	 * Opens a channel over the lz4 file, or returns <code>null</code> when a
+	 * frame has blocks that depend on the blocks before them, or uses the
+	 * legacy format, so that it can only be read as a stream.
+	 */
+	static Lz4ArchiveChannel open(Path path, int threads) throws IOException {
+		FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			List<Block> blocks = findBlocks(file);
+			if (blocks != null) {
+				return new Lz4ArchiveChannel(file, blocks, threads);
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		file.close();
+		return null;
+	}
+
+	/*
+	 * Walks the frame and block headers, skipping the data of the blocks.
+	 */
+	private static List<Block> findBlocks(FileChannel file) throws IOException {
+		List<Block> found = new ArrayList<>();
+		ByteBuffer bb = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		long size = file.size();
+		long pos = 0;
+		while (pos < size) {
+			int magic = readInt(file, bb, pos);
+			pos += 4;
+			if ((magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+				pos += 4 + (readInt(file, bb, pos) & 0xFFFFFFFFL);
+				continue;
+			}
+			if (magic != FRAME_MAGIC) {
+				return null;
+			}
+			int flags = readByte(file, bb, pos);
+			if ((flags & VERSION_MASK) != VERSION) {
+				throw new IOException("Unsupported LZ4 frame version");
+			}
+			if ((flags & BLOCK_INDEPENDENCE) == 0) {
+				return null;
+			}
+			int maxSize = 1 << 8 + 2 * (readByte(file, bb, pos + 1) >>> 4 & 7);
+			pos += 2; // flags and block maximum size
+			if ((flags & CONTENT_SIZE) != 0) {
+				pos += 8;
+			}
+			if ((flags & DICTIONARY_ID) != 0) {
+				pos += 4;
+			}
+			pos++; // header checksum
+			while (true) {
+				int header = readInt(file, bb, pos);
+				pos += 4;
+				if (header == 0) {
+					break;
+				}
+				int length = header & ~UNCOMPRESSED;
+				found.add(new Block(pos, length, maxSize,
+						(header & UNCOMPRESSED) == 0));
+				pos += length;
+				if ((flags & BLOCK_CHECKSUM) != 0) {
+					pos += 4;
+				}
+			}
+			if ((flags & CONTENT_CHECKSUM) != 0) {
+				pos += 4;
+			}
+		}
+		return found;
+	}
+
+	private static int readInt(FileChannel file, ByteBuffer bb, long pos)
+			throws IOException {
+		read(file, bb, pos, 4);
+		return bb.getInt(0);
+	}
+
+	private static int readByte(FileChannel file, ByteBuffer bb, long pos)
+			throws IOException {
+		read(file, bb, pos, 1);
+		return bb.get(0) & 0xff;
+	}
+
+	private static void read(FileChannel file, ByteBuffer bb, long pos, int n)
+			throws IOException {
+		bb.clear();
+		bb.limit(n);
+		while (bb.hasRemaining()) {
+			if (file.read(bb, pos + bb.position()) < 0) {
+				throw new EOFException("Unexpected end of LZ4 frame");
+			}
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private Future<byte[]> submit(final Block block) {
+		return executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				ByteBuffer bb = ByteBuffer.allocate(block.length);
+				while (bb.hasRemaining()) {
+					if (file.read(bb, block.start + bb.position()) < 0) {
+						throw new EOFException("Unexpected end of LZ4 block");
+					}
+				}
+				if (!block.compressed) {
+					return bb.array();
+				}
+				byte[] inflated = new byte[block.maxSize];
+				return Arrays.copyOf(inflated, Lz4Block.decompress(bb.array(),
+						block.length, inflated));
+			}
+		});
+	}
+
+	/*
+	 * Inflates the next block whose offset isn't known yet.
+	 */
+	private void inflateNext() throws IOException {
+		int index = offsets.size() - 1;
+		while (pending.size() < ahead && index + pending.size() < blocks.size()) {
+			pending.add(submit(blocks.get(index + pending.size())));
+		}
+		byte[] inflated = get(pending.poll());
+		offsets.add(offsets.get(index) + inflated.length);
+		current = index;
+		data = inflated;
+	}
+
+	/*
+	 * Makes the block holding the position current, returns false past the
+	 * end.
+	 */
+	private boolean seek(long target) throws IOException {
+		while (target >= offsets.get(offsets.size() - 1)
+				&& offsets.size() <= blocks.size()) {
+			inflateNext();
+		}
+		if (current >= 0 && target >= offsets.get(current)
+				&& target < offsets.get(current + 1)) {
+			return true;
+		}
+		if (target >= offsets.get(offsets.size() - 1)) {
+			return false;
+		}
+		int low = 0;
+		int high = offsets.size() - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets.get(mid) <= target) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		data = get(submit(blocks.get(low)));
+		current = low;
+		return true;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (!seek(position)) {
+			return -1;
+		}
+		int offset = (int) (position - offsets.get(current));
+		int n = Math.min(dst.remaining(), data.length - offset);
+		dst.put(data, offset, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		while (offsets.size() <= blocks.size()) {
+			inflateNext();
+		}
+		return offsets.get(offsets.size() - 1);
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		executor.shutdownNow();
+		file.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
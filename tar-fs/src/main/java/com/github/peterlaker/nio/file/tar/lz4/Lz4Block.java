@@ -0,0 +1,158 @@
+package com.github.peterlaker.nio.file.tar.lz4;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compression and decompression of a single lz4 block held in memory. The
+ * compressor looks up one candidate per position in a hash table and skips
+ * faster through data that doesn't match, the way the fast mode of lz4 does,
+ * trading ratio for throughput.
+ */
+final class Lz4Block {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5; // always literals at the end
+	private static final int MATCH_FIND_LIMIT = 12; // no match starts after
+	private static final int MAX_DISTANCE = 65535;
+	private static final int HASH_BITS = 16;
+	private static final int SKIP_TRIGGER = 6;
+
+	private Lz4Block() {
+	}
+
+	/**
+	 * Returns the largest size of the compressed block of an input.
+	 */
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses the input into the output at the offset, which leaves at
+	 * least {@link #maxCompressedLength(int)} bytes, and returns the
+	 * compressed length.
+	 */
+	static int compress(byte[] src, int length, byte[] dst, int off) {
+		int[] table = new int[1 << HASH_BITS];
+		Arrays.fill(table, -1);
+		int anchor = 0;
+		int op = off;
+		int matchLimit = length - LAST_LITERALS;
+		int ip = 0;
+		while (ip < length - MATCH_FIND_LIMIT) {
+			int sequence = readInt(src, ip);
+			int h = hash(sequence);
+			int ref = table[h];
+			table[h] = ip;
+			if (ref < 0 || ip - ref > MAX_DISTANCE
+					|| readInt(src, ref) != sequence) {
+				ip += 1 + (ip - anchor >>> SKIP_TRIGGER);
+				continue;
+			}
+			while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int matchLength = MIN_MATCH;
+			while (ip + matchLength < matchLimit
+					&& src[ref + matchLength] == src[ip + matchLength]) {
+				matchLength++;
+			}
+			int token = op;
+			op = writeSequence(src, anchor, ip - anchor, dst, op);
+			dst[op++] = (byte) (ip - ref);
+			dst[op++] = (byte) (ip - ref >>> 8);
+			dst[token] |= Math.min(matchLength - MIN_MATCH, 15);
+			if (matchLength - MIN_MATCH >= 15) {
+				op = writeLength(matchLength - MIN_MATCH - 15, dst, op);
+			}
+			ip += matchLength;
+			anchor = ip;
+		}
+		return writeSequence(src, anchor, length - anchor, dst, op) - off;
+	}
+
+	private static int writeSequence(byte[] src, int start, int literals,
+			byte[] dst, int op) {
+		dst[op++] = (byte) (Math.min(literals, 15) << 4);
+		if (literals >= 15) {
+			op = writeLength(literals - 15, dst, op);
+		}
+		System.arraycopy(src, start, dst, op, literals);
+		return op + literals;
+	}
+
+	private static int writeLength(int length, byte[] dst, int op) {
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	/**
+	 * Decompresses the block into the output and returns the decompressed
+	 * length.
+	 */
+	static int decompress(byte[] src, int length, byte[] dst)
+			throws IOException {
+		int ip = 0;
+		int op = 0;
+		try {
+			while (true) {
+				int token = src[ip++] & 0xff;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xff;
+						literals += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if (ip == length) {
+					return op;
+				}
+				int offset = src[ip++] & 0xff | (src[ip++] & 0xff) << 8;
+				int matchLength = token & 0x0f;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xff;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int ref = op - offset;
+				if (offset == 0 || ref < 0) {
+					throw new IOException("Invalid LZ4 block");
+				}
+				if (offset >= matchLength) {
+					System.arraycopy(dst, ref, dst, op, matchLength);
+					op += matchLength;
+				} else {
+					// the match overlaps the bytes it produces
+					for (int end = op + matchLength; op < end; op++) {
+						dst[op] = dst[ref++];
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Invalid LZ4 block");
+		}
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return b[i] & 0xff | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16
+				| b[i + 3] << 24;
+	}
+
+	private static int hash(int sequence) {
+		return sequence * -1640531535 >>> 32 - HASH_BITS;
+	}
+
+}
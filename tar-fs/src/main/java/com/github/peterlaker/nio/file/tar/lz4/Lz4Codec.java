@@ -0,0 +1,55 @@
+package com.github.peterlaker.nio.file.tar.lz4;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+
+import com.github.peterlaker.nio.file.tar.TarCodec;
+
+class Lz4Codec extends TarCodec {
+
+	private final int threads; // threads compressing and reading the archive
+
+	Lz4Codec(Map<String, ?> env) {
+		threads = env.containsKey("compression.threads") ? Integer
+				.parseInt(env.get("compression.threads").toString()) : Runtime
+				.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		// written in independent blocks even on a single thread, for random
+		// access
+		return EnumSet.of(Capability.SEEKABLE, Capability.PARALLEL);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		return new FramedLZ4CompressorInputStream(Files.newInputStream(path,
+				StandardOpenOption.READ), true);
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return Lz4ArchiveChannel.open(path, Math.max(1, threads));
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		return new ParallelLz4OutputStream(new BufferedOutputStream(
+				Files.newOutputStream(path,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE)), Math.max(1, threads));
+	}
+
+}
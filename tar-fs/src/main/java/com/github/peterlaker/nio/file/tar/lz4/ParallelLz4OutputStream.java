@@ -0,0 +1,159 @@
+package com.github.peterlaker.nio.file.tar.lz4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.compress.compressors.lz4.XXHash32;
+
+/**
+ * Lz4 output stream compressing blocks of its input on a pool of threads.
+ * The archive is written as a single frame of independent blocks, so that
+ * each block can be decompressed alone, with a checksum of its content.
+ * Blocks that don't compress are stored as they are.
+ */
+class ParallelLz4OutputStream extends OutputStream {
+
+	static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+	private static final byte[] MAGIC = { 0x04, 0x22, 0x4D, 0x18 };
+	// version 1, independent blocks and content checksum
+	private static final int FLAGS = 0x64;
+	private static final int BLOCK_MAX_SIZE = 0x70; // 4MB
+	private static final int UNCOMPRESSED = 0x80000000;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.lz4-deflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final OutputStream out;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private final XXHash32 checksum = new XXHash32();
+	private byte[] buffer = new byte[BLOCK_SIZE];
+	private int count;
+	private boolean closed;
+
+	ParallelLz4OutputStream(OutputStream out, int threads) throws IOException {
+		this.out = out;
+		maxPending = threads * 2;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		out.write(MAGIC);
+		XXHash32 descriptor = new XXHash32();
+		descriptor.update(FLAGS);
+		descriptor.update(BLOCK_MAX_SIZE);
+		out.write(FLAGS);
+		out.write(BLOCK_MAX_SIZE);
+		out.write((int) (descriptor.getValue() >>> 8));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			submit();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				submit();
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submit() throws IOException {
+		final byte[] input = buffer;
+		final int length = count;
+		checksum.update(input, 0, length);
+		pending.add(executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				byte[] block = new byte[4 + Lz4Block.maxCompressedLength(length)];
+				int n = Lz4Block.compress(input, length, block, 4);
+				int header = n;
+				if (n >= length) {
+					System.arraycopy(input, 0, block, 4, length);
+					n = length;
+					header = length | UNCOMPRESSED;
+				}
+				writeInt(block, 0, header);
+				return Arrays.copyOf(block, 4 + n);
+			}
+		}));
+		buffer = new byte[buffer.length];
+		count = 0;
+		while (pending.size() > maxPending) {
+			writeBlock(pending.poll());
+		}
+	}
+
+	private void writeBlock(Future<byte[]> future) throws IOException {
+		try {
+			out.write(future.get());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static void writeInt(byte[] b, int off, int i) {
+		b[off] = (byte) i;
+		b[off + 1] = (byte) (i >>> 8);
+		b[off + 2] = (byte) (i >>> 16);
+		b[off + 3] = (byte) (i >>> 24);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (count > 0) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeBlock(pending.poll());
+			}
+			byte[] end = new byte[8]; // end mark and content checksum
+			writeInt(end, 4, (int) checksum.getValue());
+			out.write(end);
+			out.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
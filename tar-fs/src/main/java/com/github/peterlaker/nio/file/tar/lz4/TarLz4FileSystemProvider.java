@@ -0,0 +1,20 @@
+package com.github.peterlaker.nio.file.tar.lz4;
+
+import java.util.Map;
+
+import com.github.peterlaker.nio.file.tar.AbstractTarFileSystemProvider;
+import com.github.peterlaker.nio.file.tar.TarCodec;
+
+public class TarLz4FileSystemProvider extends AbstractTarFileSystemProvider {
+
+	@Override
+	protected TarCodec newCodec(Map<String, ?> env) {
+		return new Lz4Codec(env);
+	}
+
+	@Override
+	public String getScheme() {
+		return "tar.lz4";
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.github.peterlaker.nio.file.tar.xz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Xz output stream compressing chunks of its input on a pool of threads. Each
+ * chunk is compressed as an xz stream of its own, holding a single block, and
+ * the streams are concatenated in order, which xz reads as a single file. The
+ * index of each stream then locates its block for random access.
+ */
+class ParallelXzOutputStream extends OutputStream {
+
+	private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.xz-deflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final OutputStream out;
+	private final int preset;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] buffer;
+	private int count;
+	private boolean written;
+	private boolean closed;
+
+	ParallelXzOutputStream(OutputStream out, int preset, int threads)
+			throws IOException {
+		this.out = out;
+		this.preset = preset;
+		LZMA2Options options;
+		try {
+			options = new LZMA2Options(preset);
+		} catch (UnsupportedOptionsException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		// a block a few times the dictionary size keeps most of the ratio
+		buffer = new byte[(int) Math.min(3L * options.getDictSize(),
+				MAX_BLOCK_SIZE)];
+		// an encoder takes up to ten times its dictionary, keep few of them
+		maxPending = threads;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			submit();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				submit();
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submit() throws IOException {
+		final byte[] input = buffer;
+		final int length = count;
+		pending.add(executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(
+						length / 4 + 64);
+				try (OutputStream xz = new XZOutputStream(bos,
+						new LZMA2Options(preset))) {
+					xz.write(input, 0, length);
+				}
+				return bos.toByteArray();
+			}
+		}));
+		written = true;
+		buffer = new byte[buffer.length];
+		count = 0;
+		while (pending.size() > maxPending) {
+			writeStream(pending.poll());
+		}
+	}
+
+	private void writeStream(Future<byte[]> future) throws IOException {
+		try {
+			out.write(future.get());
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// an empty input still makes a stream, without any block
+			if (count > 0 || !written) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeStream(pending.poll());
+			}
+			out.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
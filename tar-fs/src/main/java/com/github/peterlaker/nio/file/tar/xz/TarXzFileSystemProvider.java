@@ -1,19 +1,15 @@
 package com.github.peterlaker.nio.file.tar.xz;
 
-import java.io.IOException;
-import java.nio.file.Path;
 import java.util.Map;
 
-import com.github.peterlaker.nio.file.tar.AbstractTarFileSystem;
 import com.github.peterlaker.nio.file.tar.AbstractTarFileSystemProvider;
+import com.github.peterlaker.nio.file.tar.TarCodec;
 
 public class TarXzFileSystemProvider extends AbstractTarFileSystemProvider {
 
 	@Override
-	protected AbstractTarFileSystem newInstance(
-			AbstractTarFileSystemProvider provider, Path path,
-			Map<String, ?> env) throws IOException {
-		return new TarXzFileSystem(provider, path, env);
+	protected TarCodec newCodec(Map<String, ?> env) {
+		return new XzCodec(env);
 	}
 
 	@Override
@@ -0,0 +1,244 @@
+package com.github.peterlaker.nio.file.tar.xz;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.tukaani.xz.SeekableXZInputStream;
+
+/**
+ * Read only channel over the uncompressed data of an xz file, located through
+ * the index of its blocks. The block holding the position is inflated whole
+ * and the blocks after it are inflated ahead on a pool of threads, each with
+ * a decoder of its own. Blocks too large to be held in memory are read through
+ * the decoder of the channel instead.
+ */
+class XzArchiveChannel implements SeekableByteChannel {
+
+	static final long MAX_BUFFERED_BLOCK = 64L * 1024 * 1024;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.xz-inflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final Path path;
+	private final SeekableXZInputStream xz;
+	private final ExecutorService executor;
+	private final int ahead; // blocks inflated ahead of the current one
+	private final ArrayDeque<SeekableXZInputStream> decoders = new ArrayDeque<>();
+	private final Map<Integer, Future<byte[]>> pending = new HashMap<>();
+	private int current = -1; // block held in data
+	private byte[] data;
+	private long position;
+	private volatile boolean open;
+
+	XzArchiveChannel(Path path, int threads) throws IOException {
+		this.path = path;
+		xz = openDecoder();
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		ahead = threads;
+		open = true;
+	}
+
+	private SeekableXZInputStream openDecoder() throws IOException {
+		XzFileInput in = new XzFileInput(FileChannel.open(path,
+				StandardOpenOption.READ));
+		try {
+			return new SeekableXZInputStream(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private SeekableXZInputStream borrowDecoder() throws IOException {
+		synchronized (decoders) {
+			SeekableXZInputStream decoder = decoders.poll();
+			if (decoder != null) {
+				return decoder;
+			}
+		}
+		return openDecoder();
+	}
+
+	private void returnDecoder(SeekableXZInputStream decoder) {
+		synchronized (decoders) {
+			decoders.push(decoder);
+		}
+	}
+
+	private boolean isBuffered(int block) {
+		return xz.getBlockSize(block) <= MAX_BUFFERED_BLOCK;
+	}
+
+	private Future<byte[]> submit(final int block) {
+		final int size = (int) xz.getBlockSize(block);
+		return executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				SeekableXZInputStream decoder = borrowDecoder();
+				try {
+					decoder.seekToBlock(block);
+					byte[] inflated = new byte[size];
+					int n = 0;
+					while (n < size) {
+						int read = decoder.read(inflated, n, size - n);
+						if (read < 0) {
+							throw new EOFException("Unexpected end of XZ block");
+						}
+						n += read;
+					}
+					return inflated;
+				} finally {
+					returnDecoder(decoder);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Makes the block current, the futures of the blocks that aren't ahead of
+	 * it anymore are dropped.
+	 */
+	private void inflate(int block) throws IOException {
+		Future<byte[]> future = pending.remove(block);
+		if (future == null) {
+			future = submit(block);
+		}
+		for (Iterator<Map.Entry<Integer, Future<byte[]>>> it = pending
+				.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, Future<byte[]>> e = it.next();
+			if (e.getKey() < block || e.getKey() > block + ahead) {
+				e.getValue().cancel(false);
+				it.remove();
+			}
+		}
+		for (int next = block + 1; next <= block + ahead
+				&& next < xz.getBlockCount(); next++) {
+			if (!pending.containsKey(next) && isBuffered(next)) {
+				pending.put(next, submit(next));
+			}
+		}
+		try {
+			data = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		current = block;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= xz.length()) {
+			return -1;
+		}
+		int block = xz.getBlockNumber(position);
+		int n;
+		if (!isBuffered(block)) {
+			byte[] buffer = new byte[Math.min(dst.remaining(), 64 * 1024)];
+			xz.seek(position);
+			n = xz.read(buffer, 0, buffer.length);
+			if (n < 0) {
+				return -1;
+			}
+			dst.put(buffer, 0, n);
+		} else {
+			if (block != current) {
+				inflate(block);
+			}
+			int offset = (int) (position - xz.getBlockPos(block));
+			n = Math.min(dst.remaining(), data.length - offset);
+			dst.put(data, offset, n);
+		}
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return xz.length();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		open = false;
+		executor.shutdownNow();
+		xz.close();
+		synchronized (decoders) {
+			for (SeekableXZInputStream decoder : decoders) {
+				decoder.close();
+			}
+			decoders.clear();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.github.peterlaker.nio.file.tar.xz;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.tukaani.xz.LZMA2Options;
+
+import com.github.peterlaker.nio.file.tar.TarCodec;
+
+class XzCodec extends TarCodec {
+
+	private final int preset; // xz preset of the written archive
+	private final int threads; // threads compressing and reading the archive
+
+	XzCodec(Map<String, ?> env) {
+		preset = env.containsKey("compression.level") ? Integer.parseInt(env
+				.get("compression.level").toString())
+				: LZMA2Options.PRESET_DEFAULT;
+		threads = env.containsKey("compression.threads") ? Integer
+				.parseInt(env.get("compression.threads").toString()) : Runtime
+				.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		// written in blocks even on a single thread, for random access
+		return EnumSet.of(Capability.SEEKABLE, Capability.PARALLEL);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		return new XZCompressorInputStream(Files.newInputStream(path,
+				StandardOpenOption.READ), true);
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return new XzArchiveChannel(path, Math.max(1, threads));
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		return new ParallelXzOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(path,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE)), preset, Math.max(1, threads));
+	}
+
+}
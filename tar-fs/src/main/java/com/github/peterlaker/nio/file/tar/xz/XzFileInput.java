@@ -0,0 +1,63 @@
+package com.github.peterlaker.nio.file.tar.xz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.tukaani.xz.SeekableInputStream;
+
+/**
+ * Seekable input of the xz decoder over a file channel, so that archives
+ * that aren't on the default file system can be read too.
+ */
+class XzFileInput extends SeekableInputStream {
+
+	private final FileChannel file;
+	private long position;
+
+	XzFileInput(FileChannel file) {
+		this.file = file;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int n = file.read(ByteBuffer.wrap(b, off, len), position);
+		if (n > 0) {
+			position += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long length() throws IOException {
+		return file.size();
+	}
+
+	@Override
+	public long position() throws IOException {
+		return position;
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		if (pos < 0) {
+			throw new IOException("Negative seek position: " + pos);
+		}
+		position = pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
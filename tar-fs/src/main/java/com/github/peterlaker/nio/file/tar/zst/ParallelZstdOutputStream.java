@@ -0,0 +1,154 @@
+package com.github.peterlaker.nio.file.tar.zst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Zstandard output stream compressing frames of its input on a pool of
+ * threads, in the seekable format of zstd: the frames are independent and
+ * are followed by a skippable frame holding the compressed and decompressed
+ * size of each of them, so that a reader locates any frame without
+ * decompressing the ones before it.
+ */
+class ParallelZstdOutputStream extends OutputStream {
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.zst-deflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final OutputStream out;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private final ArrayDeque<Integer> lengths = new ArrayDeque<>();
+	// sizes of the frames written, for the seek table
+	private final ByteArrayOutputStream seekTable = new ByteArrayOutputStream();
+	private int frames;
+	private byte[] buffer;
+	private int count;
+	private boolean closed;
+
+	ParallelZstdOutputStream(OutputStream out, int frameSize, int threads) {
+		this.out = out;
+		buffer = new byte[frameSize];
+		maxPending = threads * 2;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			submit();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				submit();
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submit() throws IOException {
+		final byte[] input = buffer;
+		final int length = count;
+		pending.add(executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				ZstdCompressor compressor = new ZstdCompressor();
+				byte[] frame = new byte[compressor.maxCompressedLength(length)];
+				int n = compressor.compress(input, 0, length, frame, 0,
+						frame.length);
+				return Arrays.copyOf(frame, n);
+			}
+		}));
+		lengths.add(length);
+		buffer = new byte[buffer.length];
+		count = 0;
+		while (pending.size() > maxPending) {
+			writeFrame();
+		}
+	}
+
+	private void writeFrame() throws IOException {
+		byte[] frame;
+		try {
+			frame = pending.poll().get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		out.write(frame);
+		writeInt(seekTable, frame.length);
+		writeInt(seekTable, lengths.poll());
+		frames++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// an empty input still makes a frame
+			if (count > 0 || frames + pending.size() == 0) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeFrame();
+			}
+			writeInt(out, ZstdSeekTable.SKIPPABLE_MAGIC);
+			writeInt(out, seekTable.size() + ZstdSeekTable.FOOTER_SIZE);
+			seekTable.writeTo(out);
+			writeInt(out, frames);
+			out.write(0); // no checksum in the entries
+			writeInt(out, ZstdSeekTable.SEEKABLE_MAGIC);
+			out.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void writeInt(OutputStream os, int i) throws IOException {
+		os.write(i & 0xff);
+		os.write(i >>> 8 & 0xff);
+		os.write(i >>> 16 & 0xff);
+		os.write(i >>> 24 & 0xff);
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.github.peterlaker.nio.file.tar.zst;
+
+import java.util.Map;
+
+import com.github.peterlaker.nio.file.tar.AbstractTarFileSystemProvider;
+import com.github.peterlaker.nio.file.tar.TarCodec;
+
+public class TarZstdFileSystemProvider extends AbstractTarFileSystemProvider {
+
+	@Override
+	protected TarCodec newCodec(Map<String, ?> env) {
+		return new ZstdCodec(env);
+	}
+
+	@Override
+	public String getScheme() {
+		return "tar.zst";
+	}
+
+}
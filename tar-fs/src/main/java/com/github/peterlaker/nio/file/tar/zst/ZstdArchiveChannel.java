@@ -0,0 +1,236 @@
+package com.github.peterlaker.nio.file.tar.zst;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+/**
+ * Read only channel over the uncompressed data of a zstd file, located
+ * through its seek table. The frame holding the position is decompressed
+ * whole and the frames after it are decompressed ahead on a pool of threads.
+ */
+class ZstdArchiveChannel implements SeekableByteChannel {
+
+	static final int MAX_BUFFERED_FRAME = 64 * 1024 * 1024;
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tar.zst-inflater");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final FileChannel file;
+	private final List<ZstdSeekTable.Frame> frames;
+	private final long size;
+	private final ExecutorService executor;
+	private final int ahead; // frames decompressed ahead of the current one
+	private final Map<Integer, Future<byte[]>> pending = new HashMap<>();
+	private int current = -1; // frame held in data
+	private byte[] data;
+	private long position;
+	private volatile boolean open;
+
+	private ZstdArchiveChannel(FileChannel file,
+			List<ZstdSeekTable.Frame> frames, int threads) {
+		this.file = file;
+		this.frames = frames;
+		ZstdSeekTable.Frame last = frames.isEmpty() ? null : frames
+				.get(frames.size() - 1);
+		size = last == null ? 0 : last.offset + last.size;
+		executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+		ahead = threads;
+		open = true;
+	}
+
+	/**
+	 * Opens a channel over the zstd file, or returns <code>null</code> when
+	 * its frames can't be located before they are decompressed, or are too
+	 * large to be held in memory, so that it can only be read as a stream.
+	 */
+	static ZstdArchiveChannel open(Path path, int threads) throws IOException {
+		FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			List<ZstdSeekTable.Frame> frames = ZstdSeekTable.read(file,
+					MAX_BUFFERED_FRAME);
+			if (frames != null) {
+				return new ZstdArchiveChannel(file, frames, threads);
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		file.close();
+		return null;
+	}
+
+	private Future<byte[]> submit(int frame) {
+		final ZstdSeekTable.Frame f = frames.get(frame);
+		return executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				ByteBuffer bb = ByteBuffer.allocate(f.length);
+				while (bb.hasRemaining()) {
+					if (file.read(bb, f.start + bb.position()) < 0) {
+						throw new EOFException(
+								"Unexpected end of Zstandard frame");
+					}
+				}
+				byte[] decompressed = new byte[f.size];
+				try {
+					int n = new ZstdDecompressor().decompress(bb.array(), 0,
+							f.length, decompressed, 0, f.size);
+					if (n != f.size) {
+						throw new IOException("Invalid Zstandard frame size");
+					}
+				} catch (MalformedInputException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+				return decompressed;
+			}
+		});
+	}
+
+	/*
+	 * Makes the frame current, the futures of the frames that aren't ahead of
+	 * it anymore are dropped.
+	 */
+	private void decompress(int frame) throws IOException {
+		Future<byte[]> future = pending.remove(frame);
+		if (future == null) {
+			future = submit(frame);
+		}
+		for (Iterator<Map.Entry<Integer, Future<byte[]>>> it = pending
+				.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, Future<byte[]>> e = it.next();
+			if (e.getKey() < frame || e.getKey() > frame + ahead) {
+				e.getValue().cancel(false);
+				it.remove();
+			}
+		}
+		for (int next = frame + 1; next <= frame + ahead
+				&& next < frames.size(); next++) {
+			if (!pending.containsKey(next)) {
+				pending.put(next, submit(next));
+			}
+		}
+		try {
+			data = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		current = frame;
+	}
+
+	private int frameOf(long offset) {
+		int low = 0;
+		int high = frames.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (frames.get(mid).offset <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+		if (current < 0 || position < frames.get(current).offset
+				|| position >= frames.get(current).offset + data.length) {
+			decompress(frameOf(position));
+		}
+		int offset = (int) (position - frames.get(current).offset);
+		int n = Math.min(dst.remaining(), data.length - offset);
+		dst.put(data, offset, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		executor.shutdownNow();
+		file.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
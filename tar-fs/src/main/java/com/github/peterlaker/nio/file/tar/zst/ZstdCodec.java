@@ -0,0 +1,77 @@
+package com.github.peterlaker.nio.file.tar.zst;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+import org.apache.commons.compress.utils.BoundedInputStream;
+
+import com.github.peterlaker.nio.file.tar.TarCodec;
+
+class ZstdCodec extends TarCodec {
+
+	private static final int DEFAULT_FRAME_SIZE = 4 * 1024 * 1024;
+
+	// uncompressed size of the frames of the written archive, a match can't
+	// reach outside of its frame
+	private final int frameSize;
+	private final int threads; // threads compressing and reading the archive
+
+	ZstdCodec(Map<String, ?> env) {
+		frameSize = env.containsKey("compression.frame.size") ? Integer
+				.parseInt(env.get("compression.frame.size").toString())
+				: DEFAULT_FRAME_SIZE;
+		if (frameSize <= 0
+				|| frameSize > ZstdArchiveChannel.MAX_BUFFERED_FRAME) {
+			throw new IllegalArgumentException("frame size out of range: "
+					+ frameSize);
+		}
+		threads = env.containsKey("compression.threads") ? Integer
+				.parseInt(env.get("compression.threads").toString()) : Runtime
+				.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		// written in frames even on a single thread, for random access
+		return EnumSet.of(Capability.SEEKABLE, Capability.PARALLEL);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path) throws IOException {
+		long end;
+		try (FileChannel file = FileChannel
+				.open(path, StandardOpenOption.READ)) {
+			end = ZstdSeekTable.framesEnd(file);
+		}
+		// the decompressor doesn't skip the seek table
+		return new ZstdInputStream(new BoundedInputStream(Files.newInputStream(
+				path, StandardOpenOption.READ), end));
+	}
+
+	@Override
+	public SeekableByteChannel newChannel(Path path) throws IOException {
+		return ZstdArchiveChannel.open(path, Math.max(1, threads));
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path) throws IOException {
+		return new ParallelZstdOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(path,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE)), frameSize, Math.max(1,
+				threads));
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.github.peterlaker.nio.file.tar.zst;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates the frames of a zstd file, from the seek table of the seekable
+ * format when the file ends with one, otherwise by walking the frame and
+ * block headers.
+ */
+final class ZstdSeekTable {
+
+	static final int FRAME_MAGIC = 0xFD2FB528;
+	static final int SKIPPABLE_MAGIC = 0x184D2A5E; // of the seek table
+	static final int SEEKABLE_MAGIC = 0x8F92EAB1;
+	static final int FOOTER_SIZE = 9;
+
+	private static final int SKIPPABLE_MASK = 0xFFFFFFF0;
+	private static final int ENTRY_CHECKSUM = 0x80;
+	private static final int[] DICTIONARY_ID_SIZES = { 0, 1, 2, 4 };
+	private static final int[] CONTENT_SIZE_SIZES = { 0, 2, 4, 8 };
+	private static final int RLE_BLOCK = 1;
+
+	/**
+	 * A frame in the file and the part of the decompressed data it holds.
+	 */
+	static class Frame {
+
+		final long start;
+		final int length;
+		final long offset;
+		final int size;
+
+		Frame(long start, int length, long offset, int size) {
+			this.start = start;
+			this.length = length;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private ZstdSeekTable() {
+	}
+
+	/**
+	 * Returns the frames of the file, or <code>null</code> when the size of a
+	 * frame isn't known before it is decompressed or is larger than the given
+	 * size.
+	 */
+	static List<Frame> read(FileChannel file, int maxFrameSize)
+			throws IOException {
+		long size = file.size();
+		if (size >= FOOTER_SIZE) {
+			ByteBuffer footer = read(file, size - FOOTER_SIZE, FOOTER_SIZE);
+			if (footer.getInt(5) == SEEKABLE_MAGIC) {
+				return readTable(file, size, footer.getInt(0),
+						footer.get(4) & 0xff, maxFrameSize);
+			}
+		}
+		return walk(file, size, maxFrameSize);
+	}
+
+	/**
+	 * Returns the size of the file without the seek table that ends it, the
+	 * frames that the streaming decompressor reads.
+	 */
+	static long framesEnd(FileChannel file) throws IOException {
+		long size = file.size();
+		if (size >= FOOTER_SIZE) {
+			ByteBuffer footer = read(file, size - FOOTER_SIZE, FOOTER_SIZE);
+			if (footer.getInt(5) == SEEKABLE_MAGIC) {
+				int entrySize = (footer.get(4) & ENTRY_CHECKSUM) != 0 ? 12 : 8;
+				return size - (footer.getInt(0) & 0xFFFFFFFFL) * entrySize
+						- FOOTER_SIZE - 8;
+			}
+		}
+		return size;
+	}
+
+	private static List<Frame> readTable(FileChannel file, long size,
+			int count, int descriptor, int maxFrameSize) throws IOException {
+		int entrySize = (descriptor & ENTRY_CHECKSUM) != 0 ? 12 : 8;
+		long tableSize = (long) count * entrySize + FOOTER_SIZE;
+		if (tableSize + 8 > size || count < 0) {
+			throw new IOException("Invalid Zstandard seek table");
+		}
+		ByteBuffer header = read(file, size - tableSize - 8, 8);
+		if (header.getInt(0) != SKIPPABLE_MAGIC
+				|| header.getInt(4) != tableSize) {
+			throw new IOException("Invalid Zstandard seek table");
+		}
+		ByteBuffer entries = read(file, size - tableSize, (int) tableSize
+				- FOOTER_SIZE);
+		List<Frame> frames = new ArrayList<>(count);
+		long start = 0;
+		long offset = 0;
+		for (int i = 0; i < count; i++) {
+			int length = entries.getInt(i * entrySize);
+			int frameSize = entries.getInt(i * entrySize + 4);
+			if (frameSize < 0 || frameSize > maxFrameSize) {
+				return null;
+			}
+			frames.add(new Frame(start, length, offset, frameSize));
+			start += length & 0xFFFFFFFFL;
+			offset += frameSize;
+		}
+		return frames;
+	}
+
+	private static List<Frame> walk(FileChannel file, long size,
+			int maxFrameSize) throws IOException {
+		List<Frame> frames = new ArrayList<>();
+		long pos = 0;
+		long offset = 0;
+		while (pos < size) {
+			int magic = read(file, pos, 4).getInt(0);
+			if ((magic & SKIPPABLE_MASK) == (SKIPPABLE_MAGIC & SKIPPABLE_MASK)) {
+				pos += 8 + (read(file, pos + 4, 4).getInt(0) & 0xFFFFFFFFL);
+				continue;
+			}
+			if (magic != FRAME_MAGIC) {
+				throw new IOException("Not a Zstandard frame");
+			}
+			long start = pos;
+			int descriptor = read(file, pos + 4, 1).get(0) & 0xff;
+			boolean singleSegment = (descriptor & 0x20) != 0;
+			int contentSizeSize = CONTENT_SIZE_SIZES[descriptor >>> 6];
+			if (contentSizeSize == 0 && singleSegment) {
+				contentSizeSize = 1;
+			}
+			if (contentSizeSize == 0) {
+				return null;
+			}
+			pos += 5 + (singleSegment ? 0 : 1)
+					+ DICTIONARY_ID_SIZES[descriptor & 3];
+			ByteBuffer bb = read(file, pos, contentSizeSize);
+			long frameSize = contentSizeSize == 1 ? bb.get(0) & 0xff
+					: contentSizeSize == 2 ? (bb.getShort(0) & 0xffff) + 256
+							: contentSizeSize == 4 ? bb.getInt(0) & 0xFFFFFFFFL
+									: bb.getLong(0);
+			if (frameSize < 0 || frameSize > maxFrameSize) {
+				return null;
+			}
+			pos += contentSizeSize;
+			boolean last = false;
+			while (!last) {
+				bb = read(file, pos, 3);
+				int block = bb.get(0) & 0xff | (bb.get(1) & 0xff) << 8
+						| (bb.get(2) & 0xff) << 16;
+				last = (block & 1) != 0;
+				pos += 3 + ((block >>> 1 & 3) == RLE_BLOCK ? 1 : block >>> 3);
+			}
+			if ((descriptor & 0x04) != 0) {
+				pos += 4; // checksum
+			}
+			frames.add(new Frame(start, (int) (pos - start), offset,
+					(int) frameSize));
+			offset += frameSize;
+		}
+		return frames;
+	}
+
+	private static ByteBuffer read(FileChannel file, long pos, int n)
+			throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+		while (bb.hasRemaining()) {
+			if (file.read(bb, pos + bb.position()) < 0) {
+				throw new EOFException("Unexpected end of Zstandard frame");
+			}
+		}
+		return bb;
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads archives made by GNU tar in the pax format and compressed by the
+ * system tools: gzip in two members, bzip2 -1 in two blocks and xz in blocks
+ * of 64k. The archive holds system/hello.txt, system/empty/, the numbers from
+ * 1 to 30000 in system/numbers.txt, and a file whose name only fits in a pax
+ * header.
+ */
+public class SystemArchiveTests {
+
+	private static final String LONG_NAME = "system/" + repeat('l', 120)
+			+ ".txt";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testGzipMembers() throws Exception {
+		assertSystemArchive("tar.gz", "system.tar.gz");
+	}
+
+	@Test
+	public void testBzip2Blocks() throws Exception {
+		assertSystemArchive("tar.bz2", "system.tar.bz2");
+	}
+
+	@Test
+	public void testXzBlocks() throws Exception {
+		assertSystemArchive("tar.xz", "system.tar.xz");
+	}
+
+	@Test
+	public void testReadOnlyOpen() throws Exception {
+		Path plain = folder.newFolder().toPath().resolve("system.tar");
+		Files.createFile(plain);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri("tar", plain),
+				Collections.<String, Object> emptyMap())) {
+			Files.write(tfs.getPath("system/hello.txt"), "hello\n"
+					.getBytes(StandardCharsets.US_ASCII));
+		}
+		assertReadOnly("tar", plain);
+		for (String fixture : Arrays.asList("system.tar.gz",
+				"system.tar.bz2", "system.tar.xz")) {
+			assertReadOnly(fixture.substring("system.".length()),
+					copy(fixture));
+		}
+	}
+
+	/*
+	 * Reads the archive lazily through its channel, then as a stream.
+	 */
+	private void assertSystemArchive(String scheme, String fixture)
+			throws Exception {
+		Path archive = copy(fixture);
+		for (String lazy : Arrays.asList("true", "false")) {
+			try (FileSystem tfs = FileSystems.newFileSystem(uri(scheme,
+					archive), env("lazy", lazy))) {
+				assertEntries(tfs);
+			}
+		}
+	}
+
+	/*
+	 * Opens the archive read only, asking for every index, and checks that
+	 * neither the archive nor its directory changed.
+	 */
+	private void assertReadOnly(String scheme, Path archive) throws Exception {
+		Map<String, String> before = snapshot(archive.getParent());
+		Map<String, Object> env = env("readonly", "true");
+		env.put("index", "true");
+		try (FileSystem tfs = FileSystems.newFileSystem(uri(scheme, archive),
+				env)) {
+			Assert.assertTrue(tfs.isReadOnly());
+			Assert.assertArrayEquals("hello\n"
+					.getBytes(StandardCharsets.US_ASCII), Files
+					.readAllBytes(tfs.getPath("system/hello.txt")));
+			try {
+				Files.write(tfs.getPath("system/new.txt"), new byte[1]);
+				Assert.fail(scheme);
+			} catch (ReadOnlyFileSystemException e) {
+				// expected
+			}
+			try {
+				Files.delete(tfs.getPath("system/hello.txt"));
+				Assert.fail(scheme);
+			} catch (ReadOnlyFileSystemException e) {
+				// expected
+			}
+		}
+		Assert.assertEquals(scheme, before, snapshot(archive.getParent()));
+	}
+
+	private static void assertEntries(FileSystem tfs) throws IOException {
+		Assert.assertTrue(Files.isDirectory(tfs.getPath("system/empty")));
+		Set<String> children = new HashSet<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+				.getPath("system"))) {
+			for (Path child : ds) {
+				children.add(child.toString());
+			}
+		}
+		Assert.assertEquals(new HashSet<>(Arrays.asList("system/empty",
+				"system/hello.txt", "system/numbers.txt", LONG_NAME)),
+				children);
+		Assert.assertArrayEquals("hello\n".getBytes(StandardCharsets.US_ASCII),
+				Files.readAllBytes(tfs.getPath("system/hello.txt")));
+		Assert.assertArrayEquals("long\n".getBytes(StandardCharsets.US_ASCII),
+				Files.readAllBytes(tfs.getPath(LONG_NAME)));
+		byte[] numbers = numbers(30000);
+		Path path = tfs.getPath("system/numbers.txt");
+		Assert.assertEquals(numbers.length, Files.size(path));
+		// from the end first, then the start
+		try (SeekableByteChannel sbc = Files.newByteChannel(path)) {
+			int position = numbers.length - 1000;
+			ByteBuffer bb = ByteBuffer.allocate(1000);
+			sbc.position(position);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertArrayEquals(Arrays.copyOfRange(numbers, position,
+					numbers.length), bb.array());
+		}
+		Assert.assertArrayEquals(numbers, Files.readAllBytes(path));
+	}
+
+	/*
+	 * Returns the names, sizes, times and contents of the files in the
+	 * directory.
+	 */
+	private static Map<String, String> snapshot(Path dir) throws IOException {
+		Map<String, String> files = new TreeMap<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path file : ds) {
+				files.put(file.getFileName().toString(), Files.size(file)
+						+ " " + Files.getLastModifiedTime(file) + " "
+						+ Arrays.hashCode(Files.readAllBytes(file)));
+			}
+		}
+		return files;
+	}
+
+	private Path copy(String fixture) throws IOException {
+		Path dir = folder.newFolder().toPath();
+		return Files.copy(Paths.get("src/test/resources", fixture), dir
+				.resolve(fixture), StandardCopyOption.COPY_ATTRIBUTES);
+	}
+
+	static byte[] numbers(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			sb.append(i).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static URI uri(String scheme, Path archive) throws Exception {
+		return new URI(scheme + ":" + archive.toUri().toString());
+	}
+
+	static Map<String, Object> env(String key, String value) {
+		Map<String, Object> env = new HashMap<>();
+		env.put(key, value);
+		return env;
+	}
+
+	static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Writes an archive through each codec and reads it back, lazily and as a
+ * stream, then changes it and reads it again. The compressed archives are
+ * written on one thread and on several, in blocks small enough for the
+ * largest entry to span a few of them.
+ */
+public class TarCodecTests {
+
+	// over a block of every codec but lz4, whose blocks are of 4MB
+	private static final byte[] NUMBERS = SystemArchiveTests.numbers(300000);
+	private static final byte[] MORE_NUMBERS = SystemArchiveTests
+			.numbers(700000);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testTar() throws Exception {
+		assertRoundTrip("tar", SystemArchiveTests.env("mmap", "true"),
+				NUMBERS);
+		assertRoundTrip("tar", SystemArchiveTests.env("mmap", "false"),
+				NUMBERS);
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		for (String threads : Arrays.asList("1", "4")) {
+			assertRoundTrip("tar.gz", SystemArchiveTests.env(
+					"compression.threads", threads), NUMBERS);
+		}
+	}
+
+	@Test
+	public void testBzip2() throws Exception {
+		for (String threads : Arrays.asList("1", "4")) {
+			Map<String, Object> env = SystemArchiveTests.env(
+					"compression.threads", threads);
+			env.put("compression.level", "1");
+			assertRoundTrip("tar.bz2", env, NUMBERS);
+		}
+	}
+
+	@Test
+	public void testXz() throws Exception {
+		for (String threads : Arrays.asList("1", "4")) {
+			Map<String, Object> env = SystemArchiveTests.env(
+					"compression.threads", threads);
+			env.put("compression.level", "0");
+			assertRoundTrip("tar.xz", env, NUMBERS);
+		}
+	}
+
+	@Test
+	public void testLz4() throws Exception {
+		assertRoundTrip("tar.lz4", SystemArchiveTests.env(
+				"compression.threads", "1"), NUMBERS);
+		assertRoundTrip("tar.lz4", SystemArchiveTests.env(
+				"compression.threads", "4"), MORE_NUMBERS);
+	}
+
+	@Test
+	public void testZstd() throws Exception {
+		for (String threads : Arrays.asList("1", "4")) {
+			Map<String, Object> env = SystemArchiveTests.env(
+					"compression.threads", threads);
+			env.put("compression.frame.size", "1048576");
+			assertRoundTrip("tar.zst", env, NUMBERS);
+		}
+	}
+
+	private void assertRoundTrip(String scheme, Map<String, Object> env,
+			byte[] numbers) throws Exception {
+		Path archive = newArchive(scheme);
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri(scheme, archive), env)) {
+			Files.createDirectories(tfs.getPath("dir/empty"));
+			Files.write(tfs.getPath("dir/numbers.txt"), numbers);
+			Files.write(tfs.getPath("dir/a.txt"), bytes("a"));
+		}
+		for (String lazy : Arrays.asList("true", "false")) {
+			env.put("lazy", lazy);
+			try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+					.uri(scheme, archive), env)) {
+				Assert.assertTrue(Files.isDirectory(tfs.getPath("dir/empty")));
+				Assert.assertArrayEquals(bytes("a"), Files.readAllBytes(tfs
+						.getPath("dir/a.txt")));
+				assertNumbers(tfs.getPath("dir/numbers.txt"), numbers);
+			}
+		}
+		env.remove("lazy");
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri(scheme, archive), env)) {
+			Files.write(tfs.getPath("dir/a.txt"), bytes("changed"));
+			Files.write(tfs.getPath("dir/b.txt"), bytes("b"));
+			Files.delete(tfs.getPath("dir/empty"));
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri(scheme, archive), env)) {
+			Assert.assertFalse(Files.exists(tfs.getPath("dir/empty")));
+			Assert.assertArrayEquals(bytes("changed"), Files.readAllBytes(tfs
+					.getPath("dir/a.txt")));
+			Assert.assertArrayEquals(bytes("b"), Files.readAllBytes(tfs
+					.getPath("dir/b.txt")));
+			assertNumbers(tfs.getPath("dir/numbers.txt"), numbers);
+		}
+	}
+
+	/*
+	 * Reads the entry from its end first, then the start.
+	 */
+	private static void assertNumbers(Path path, byte[] numbers)
+			throws IOException {
+		Assert.assertEquals(numbers.length, Files.size(path));
+		try (SeekableByteChannel sbc = Files.newByteChannel(path)) {
+			int position = numbers.length - 1000;
+			ByteBuffer bb = ByteBuffer.allocate(1000);
+			sbc.position(position);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertArrayEquals(Arrays.copyOfRange(numbers, position,
+					numbers.length), bb.array());
+		}
+		// assertArrayEquals compares an element at a time through reflection
+		Assert.assertTrue(Arrays.equals(numbers, Files.readAllBytes(path)));
+	}
+
+	/*
+	 * Returns an empty archive, an empty file isn't a gzip or xz stream.
+	 */
+	private Path newArchive(String scheme) throws IOException {
+		Path archive = folder.newFolder().toPath().resolve("new." + scheme);
+		Files.createFile(archive);
+		if (scheme.equals("tar.gz")) {
+			try (OutputStream os = new GZIPOutputStream(Files
+					.newOutputStream(archive))) {
+			}
+		} else if (scheme.equals("tar.xz")) {
+			try (OutputStream os = new XZOutputStream(Files
+					.newOutputStream(archive), new LZMA2Options())) {
+			}
+		}
+		return archive;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
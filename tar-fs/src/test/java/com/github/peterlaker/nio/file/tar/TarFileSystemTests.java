@@ -1,14 +1,31 @@
 package com.github.peterlaker.nio.file.tar;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -37,6 +54,382 @@ public class TarFileSystemTests {
 		Assert.assertArrayEquals(expectedBytes, actualBytes);
 	}
 
+	@Test
+	public void testDirectoryListing() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("dir/a.txt"));
+			Files.copy(sampleFile, tfs.getPath("dir/sub/b.txt"));
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertTrue(Files.isDirectory(tfs.getPath("dir/sub")));
+			Set<String> children = new HashSet<>();
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+					.getPath("dir"))) {
+				for (Path child : ds) {
+					children.add(child.toString());
+				}
+			}
+			Assert.assertEquals(new HashSet<>(Arrays.asList("dir/a.txt",
+					"dir/sub")), children);
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("dir/sub/b.txt")));
+		}
+	}
+
+	@Test
+	public void testLongNameRoundTrip() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		// too long for the ustar fields, and long enough to be split in them
+		String dir = SystemArchiveTests.repeat('d', 160);
+		String longName = dir + "/" + SystemArchiveTests.repeat('f', 120)
+				+ ".txt";
+		String splitName = SystemArchiveTests.repeat('p', 140) + "/mid.txt";
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath(longName));
+			Files.copy(sampleFile, tfs.getPath(splitName));
+		}
+		FileTime time = FileTime.fromMillis(1000000000000L);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.setLastModifiedTime(tfs.getPath(longName), time);
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertEquals(time, Files.getLastModifiedTime(tfs
+					.getPath(longName)));
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath(longName)));
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath(splitName)));
+			Set<String> children = new HashSet<>();
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+					.getPath("/"))) {
+				for (Path child : ds) {
+					children.add(child.toString());
+				}
+			}
+			Assert.assertEquals(new HashSet<>(Arrays.asList("/"
+					+ dir, "/" + SystemArchiveTests.repeat('p', 140))),
+					children);
+		}
+	}
+
+	@Test
+	public void testNewEntryTimes() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		long before = System.currentTimeMillis() / 1000 * 1000;
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.createDirectory(tfs.getPath("dir"));
+			Files.copy(sampleFile, tfs.getPath("dir/a.txt"));
+			Files.copy(tfs.getPath("dir/a.txt"), tfs.getPath("dir/b.txt"));
+		}
+		long after = System.currentTimeMillis();
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			for (String name : Arrays.asList("dir", "dir/a.txt", "dir/b.txt")) {
+				long time = Files.getLastModifiedTime(tfs.getPath(name))
+						.toMillis();
+				Assert.assertTrue(name, time >= before && time <= after);
+			}
+		}
+	}
+
+	@Test
+	public void testSetTimes() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("dir/a.txt"));
+		}
+		FileTime time = FileTime.fromMillis(1000000000000L);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			// dir has no entry of its own in the archive
+			Files.setLastModifiedTime(tfs.getPath("dir"), time);
+			Files.setLastModifiedTime(tfs.getPath("dir/a.txt"), time);
+			Assert.assertEquals(time, Files.getLastModifiedTime(tfs
+					.getPath("dir")));
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertEquals(time, Files.getLastModifiedTime(tfs
+					.getPath("dir")));
+			Assert.assertEquals(time, Files.getLastModifiedTime(tfs
+					.getPath("dir/a.txt")));
+			Assert.assertTrue(Files.isDirectory(tfs.getPath("dir")));
+		}
+	}
+
+	@Test
+	public void testMove() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("dir/a.txt"));
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.move(tfs.getPath("dir/a.txt"), tfs.getPath("dir/b.txt"));
+			Assert.assertFalse(Files.exists(tfs.getPath("dir/a.txt")));
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertFalse(Files.exists(tfs.getPath("dir/a.txt")));
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("dir/b.txt")));
+		}
+	}
+
+	@Test
+	public void testArchiveEnd() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("a.txt"));
+		}
+		assertEndBlocks(Files.readAllBytes(createPath));
+		// appended over the end blocks, which are written again after it
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("b.txt"));
+		}
+		byte[] archive = Files.readAllBytes(createPath);
+		assertEndBlocks(archive);
+		Assert.assertEquals(4 * TarConstants.DATA_BLOCK
+				+ TarConstants.EOF_BLOCK, archive.length);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("a.txt")));
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("b.txt")));
+		}
+	}
+
+	@Test
+	public void testAppendOverPadding() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("a.txt"));
+		}
+		// padded to a record of 20 blocks, as tar writes it
+		long record = 20 * TarConstants.DATA_BLOCK;
+		Files.write(createPath, new byte[(int) (record - Files
+				.size(createPath))], StandardOpenOption.APPEND);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("b.txt"));
+		}
+		// written over the padding, the file isn't shrunk
+		Assert.assertEquals(record, Files.size(createPath));
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("a.txt")));
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("b.txt")));
+		}
+	}
+
+	@Test
+	public void testUnchangedClose() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("dir/a.txt"));
+		}
+		FileTime time = FileTime.fromMillis(1000000000000L);
+		Files.setLastModifiedTime(createPath, time);
+		byte[] archive = Files.readAllBytes(createPath);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertArrayEquals(Files.readAllBytes(sampleFile),
+					Files.readAllBytes(tfs.getPath("dir/a.txt")));
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+					.getPath("dir"))) {
+				for (Path child : ds) {
+					Files.getLastModifiedTime(child);
+				}
+			}
+		}
+		Assert.assertEquals(time, Files.getLastModifiedTime(createPath));
+		Assert.assertArrayEquals(archive, Files.readAllBytes(createPath));
+	}
+
+	@Test
+	public void testAppendAndRewrite() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("a.txt"));
+		}
+		byte[] before = Files.readAllBytes(createPath);
+		// written after the entries already in the archive
+		byte[] changed = "changed".getBytes(StandardCharsets.US_ASCII);
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.write(tfs.getPath("a.txt"), changed,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			Files.copy(sampleFile, tfs.getPath("b.txt"));
+		}
+		byte[] appended = Files.readAllBytes(createPath);
+		int end = before.length - TarConstants.EOF_BLOCK;
+		Assert.assertArrayEquals(Arrays.copyOf(before, end), Arrays.copyOf(
+				appended, end));
+		Assert.assertEquals(before.length + 4 * TarConstants.DATA_BLOCK,
+				appended.length);
+		// a deleted entry can't be appended, the archive is written again
+		// without the entries shadowed or deleted, a.txt alone as before
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertArrayEquals(changed, Files.readAllBytes(tfs
+					.getPath("a.txt")));
+			Files.delete(tfs.getPath("b.txt"));
+		}
+		Assert.assertEquals(before.length, Files.size(createPath));
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertArrayEquals(changed, Files.readAllBytes(tfs
+					.getPath("a.txt")));
+			Assert.assertFalse(Files.exists(tfs.getPath("b.txt")));
+		}
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		final int threads = 8;
+		final int entries = 200;
+		try (final FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Files.copy(sampleFile, tfs.getPath("shared.txt"));
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final String dir = "t" + t;
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						for (int i = 0; i < entries; i++) {
+							Path path = tfs.getPath(dir + "/e" + i);
+							Files.write(path, path.toString().getBytes(
+									StandardCharsets.US_ASCII));
+							Assert.assertArrayEquals(path.toString()
+									.getBytes(StandardCharsets.US_ASCII),
+									Files.readAllBytes(path));
+							Assert.assertArrayEquals(Files
+									.readAllBytes(sampleFile), Files
+									.readAllBytes(tfs.getPath("shared.txt")));
+							// the same entries, changed from every thread
+							Files.write(tfs.getPath("common/e" + i % 10),
+									dir.getBytes(StandardCharsets.US_ASCII));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			executor.shutdown();
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			for (int t = 0; t < threads; t++) {
+				for (int i = 0; i < entries; i++) {
+					Path path = tfs.getPath("t" + t + "/e" + i);
+					Assert.assertArrayEquals(path.toString().getBytes(
+							StandardCharsets.US_ASCII), Files
+							.readAllBytes(path));
+				}
+			}
+			for (int i = 0; i < 10; i++) {
+				String dir = new String(Files.readAllBytes(tfs
+						.getPath("common/e" + i)), StandardCharsets.US_ASCII);
+				Assert.assertTrue(dir, dir.matches("t[0-7]"));
+			}
+		}
+	}
+
+	@Test
+	public void testSpilledOutputStream() throws Exception {
+		if (!Files.exists(createPath)) {
+			Files.createFile(createPath);
+		}
+		URI uri = new URI("tar:" + createPath.toUri().toString());
+		byte[] data = new byte[200 * 1000];
+		new Random(0).nextBytes(data);
+		Map<String, Object> env = new HashMap<>();
+		env.put("spill.threshold", "4096");
+		try (FileSystem tfs = FileSystems.newFileSystem(uri, env)) {
+			try (OutputStream os = Files.newOutputStream(tfs
+					.getPath("large.bin"))) {
+				for (int i = 0; i < data.length; i += 1000) {
+					os.write(data, i, 1000);
+				}
+			}
+			Assert.assertTrue(Arrays.equals(data, Files.readAllBytes(tfs
+					.getPath("large.bin"))));
+		}
+		// the scratch file is deleted with the file system
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(createPath
+				.toAbsolutePath().getParent(), createPath.getFileName()
+				+ "?*")) {
+			Assert.assertFalse(ds.iterator().hasNext());
+		}
+		try (FileSystem tfs = FileSystems.newFileSystem(uri,
+				Collections.<String, Object> emptyMap())) {
+			Assert.assertTrue(Arrays.equals(data, Files.readAllBytes(tfs
+					.getPath("large.bin"))));
+		}
+	}
+
+	private static void assertEndBlocks(byte[] archive) {
+		Assert.assertEquals(0, archive.length % TarConstants.DATA_BLOCK);
+		int end = archive.length - TarConstants.EOF_BLOCK;
+		for (int i = end; i < archive.length; i++) {
+			Assert.assertEquals(0, archive[i]);
+		}
+		Assert.assertNotEquals(0, archive[end - TarConstants.DATA_BLOCK]);
+	}
+
 	@After
 	public void after() throws IOException {
 		Files.deleteIfExists(createPath);
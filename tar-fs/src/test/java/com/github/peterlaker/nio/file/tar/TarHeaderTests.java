@@ -0,0 +1,125 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Writes and reads header blocks in place, the fields too large for their
+ * octal digits in base 256, and the pax records of the values that don't fit
+ * a ustar header at all.
+ */
+public class TarHeaderTests {
+
+	private static final long LARGE_SIZE = 10L * 1024 * 1024 * 1024;
+
+	@Test
+	public void testBlockRoundTrip() {
+		String name = SystemArchiveTests.repeat('p', 120) + "/name.txt";
+		TarEntry te = new TarEntry(new byte[0], name, false);
+		te.setSize(LARGE_SIZE);
+		te.setModTime(1555459200000L);
+		byte[] header = new byte[TarConstants.HEADER_BLOCK];
+		te.writeEntryHeader(header);
+		// at an offset of a direct buffer, as the scan reads a mapped archive
+		ByteBuffer bb = ByteBuffer
+				.allocateDirect(3 * TarConstants.HEADER_BLOCK);
+		for (int i = 0; i < header.length; i++) {
+			bb.put(TarConstants.HEADER_BLOCK + i, header[i]);
+		}
+		TarHeaderBlock block = new TarHeaderBlock().wrap(bb,
+				TarConstants.HEADER_BLOCK);
+		Assert.assertEquals(TarHeaderBlock.HEADER, block.check());
+		Assert.assertEquals(LARGE_SIZE, block.size());
+		Assert.assertEquals(1555459200L, block.modTime());
+		Assert.assertEquals(TarHeader.LF_NORMAL, block.linkFlag());
+		byte[] dst = new byte[TarHeaderBlock.MAX_NAME];
+		Assert.assertEquals(name, new String(dst, 0, block.getName(dst),
+				StandardCharsets.ISO_8859_1));
+		Assert.assertEquals(0x80, header[TarHeaderBlock.SIZE] & 0xff);
+		TarEntry read = new TarEntry(block.copyTo(new byte[header.length]));
+		Assert.assertEquals(name, read.getName());
+		Assert.assertEquals(LARGE_SIZE, read.getSize());
+		Assert.assertEquals(0, new TarHeaderBlock().wrap(bb, 0).check());
+	}
+
+	@Test
+	public void testBlockKinds() {
+		ByteBuffer bb = ByteBuffer.allocate(TarConstants.HEADER_BLOCK);
+		TarHeaderBlock block = new TarHeaderBlock().wrap(bb, 0);
+		Assert.assertEquals(TarHeaderBlock.ZERO, block.check());
+		byte[] data = new byte[TarConstants.HEADER_BLOCK];
+		new Random(0).nextBytes(data);
+		bb.put(data).clear();
+		Assert.assertEquals(TarHeaderBlock.OTHER, block.check());
+		block.put(TarHeader.createHeader("a.txt", 1, 0, false));
+		Assert.assertEquals(TarHeaderBlock.HEADER, block.check());
+		bb.put(TarHeaderBlock.NAME, (byte) 'b');
+		Assert.assertEquals(TarHeaderBlock.CORRUPT, block.check());
+		// summed as signed bytes, the way some old archivers did
+		block.put(TarHeader.createHeader("\u00e9t\u00e9.txt", 1, 0, false));
+		long signed = 0;
+		for (int i = 0; i < TarConstants.HEADER_BLOCK; i++) {
+			boolean chksum = i >= TarHeaderBlock.CHKSUM
+					&& i < TarHeaderBlock.CHKSUM + TarHeader.CHKSUMLEN;
+			signed += chksum ? ' ' : bb.get(i);
+		}
+		byte[] field = new byte[TarHeader.CHKSUMLEN];
+		Octal.getCheckSumOctalBytes(signed, field, 0, field.length);
+		for (int i = 0; i < field.length; i++) {
+			bb.put(TarHeaderBlock.CHKSUM + i, field[i]);
+		}
+		Assert.assertEquals(TarHeaderBlock.HEADER, block.check());
+	}
+
+	@Test
+	public void testBase256() {
+		byte[] field = new byte[TarHeader.SIZELEN];
+		long maxOctal = 077777777777L;
+		for (long value : new long[] { 0, maxOctal, maxOctal + 1, LARGE_SIZE,
+				Long.MAX_VALUE, -1 }) {
+			Octal.getLongOctalOrBinaryBytes(value, field, 0, field.length);
+			Assert.assertEquals(value, Octal.parseOctalOrBinary(field, 0,
+					field.length));
+			Assert.assertEquals(value >= 0 && value <= maxOctal,
+					(field[0] & 0x80) == 0);
+		}
+	}
+
+	@Test
+	public void testPaxHeaders() {
+		String name = "dir/" + SystemArchiveTests.repeat('n', 150);
+		TarEntry te = new TarEntry(new byte[0], name, false);
+		te.setUserId(010000000);
+		te.setUserName(SystemArchiveTests.repeat('u', 40));
+		Map<String, String> expected = new TreeMap<>();
+		expected.put("path", name);
+		expected.put("uid", "2097152");
+		expected.put("uname", SystemArchiveTests.repeat('u', 40));
+		Assert.assertEquals(expected, te.getPaxHeaders());
+		Assert.assertNull(new TarEntry(new byte[0], "short.txt", false)
+				.getPaxHeaders());
+		// records whose length gains a digit with the length itself
+		for (int length = 80; length < 110; length++) {
+			Map<String, String> headers = new TreeMap<>();
+			headers.put("path", SystemArchiveTests.repeat('x', length));
+			headers.put("uname", "u");
+			byte[] records = TarHeader.formatPaxHeaders(headers);
+			Assert.assertEquals(headers, TarHeader.parsePaxHeaders(records));
+			String first = new String(records, StandardCharsets.ISO_8859_1);
+			int space = first.indexOf(' ');
+			int recordLength = Integer.parseInt(first.substring(0, space));
+			Assert.assertEquals('\n', records[recordLength - 1]);
+			Assert.assertTrue(Arrays.toString(records), first.substring(
+					recordLength).startsWith(
+					(records.length - recordLength) + " uname=u\n"));
+		}
+	}
+
+}
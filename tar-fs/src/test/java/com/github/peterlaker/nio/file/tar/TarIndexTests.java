@@ -0,0 +1,144 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the index stored next to an archive is used while the archive
+ * is unchanged and scanned again once it changed, and that an archive indexed
+ * in the background can be read meanwhile.
+ */
+public class TarIndexTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStoredIndex() throws Exception {
+		Path archive = newArchive("ab.txt", "cd.txt");
+		Path index = archive.resolveSibling("index.tar" + TarIndex.SUFFIX);
+		Map<String, Object> env = SystemArchiveTests.env("index", "true");
+		Assert.assertEquals(setOf("/ab.txt", "/cd.txt"), list(archive, env));
+		Assert.assertTrue(Files.exists(index));
+		// a name of the same checksum, written over the name of the first
+		// header at the start of the archive
+		FileTime time = Files.getLastModifiedTime(archive);
+		try (FileChannel ch = FileChannel.open(archive,
+				StandardOpenOption.WRITE)) {
+			ch.write(ByteBuffer.wrap("ba".getBytes(StandardCharsets.US_ASCII)),
+					0);
+		}
+		Files.setLastModifiedTime(archive, time);
+		Assert.assertEquals(setOf("/ab.txt", "/cd.txt"), list(archive, env));
+		Assert.assertEquals(setOf("/ba.txt", "/cd.txt"), list(archive,
+				Collections.<String, Object> emptyMap()));
+		// appended to, the stored index is stale
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri("tar", archive), Collections
+				.<String, Object> emptyMap())) {
+			Files.write(tfs.getPath("ef.txt"), new byte[1]);
+		}
+		Assert.assertEquals(setOf("/ba.txt", "/cd.txt", "/ef.txt"), list(
+				archive, env));
+		Assert.assertEquals(setOf("/ba.txt", "/cd.txt", "/ef.txt"), list(
+				archive, env));
+	}
+
+	@Test
+	public void testIndexFile() throws Exception {
+		Path archive = newArchive("ab.txt");
+		Path index = folder.getRoot().toPath().resolve("elsewhere.idx");
+		Assert.assertEquals(setOf("/ab.txt"), list(archive, SystemArchiveTests
+				.env("index.file", index.toString())));
+		Assert.assertTrue(Files.exists(index));
+		Assert.assertFalse(Files.exists(archive.resolveSibling("index.tar"
+				+ TarIndex.SUFFIX)));
+		// the index of a codec next to it
+		Assert.assertEquals(index.resolveSibling("elsewhere.idx.gzidx"),
+				TarIndexFile.resolve(archive, SystemArchiveTests.env(
+						"index.file", index.toString()), ".gzidx"));
+	}
+
+	@Test
+	public void testBackgroundIndexing() throws Exception {
+		String[] names = new String[5000];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "dir" + i / 100 + "/entry" + i;
+		}
+		Path archive = newArchive(names);
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri("tar", archive), SystemArchiveTests.env(
+				"index.background", "true"))) {
+			// found while the archive is indexed, or once it is
+			String last = names[names.length - 1];
+			Assert.assertArrayEquals(last.getBytes(StandardCharsets.US_ASCII),
+					Files.readAllBytes(tfs.getPath(last)));
+			Assert.assertFalse(Files.exists(tfs.getPath("dir0/missing")));
+			((AbstractTarFileSystem) tfs).getIndexing().get();
+			Set<String> children = new HashSet<>();
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+					.getPath("/"))) {
+				for (Path child : ds) {
+					children.add(child.toString());
+				}
+			}
+			Assert.assertEquals(names.length / 100, children.size());
+		}
+	}
+
+	/*
+	 * Returns a new archive of entries holding their own names.
+	 */
+	private Path newArchive(String... names) throws Exception {
+		Path archive = folder.newFolder().toPath().resolve("index.tar");
+		Files.createFile(archive);
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri("tar", archive), Collections
+				.<String, Object> emptyMap())) {
+			for (String name : names) {
+				Files.write(tfs.getPath(name), name
+						.getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		return archive;
+	}
+
+	private static Set<String> list(Path archive, Map<String, Object> env)
+			throws Exception {
+		Set<String> children = new HashSet<>();
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri("tar", archive), env)) {
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(tfs
+					.getPath("/"))) {
+				for (Path child : ds) {
+					children.add(child.toString());
+				}
+			}
+		}
+		return children;
+	}
+
+	private static Set<String> setOf(String... names) {
+		Set<String> set = new HashSet<>();
+		Collections.addAll(set, names);
+		return set;
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.github.peterlaker.nio.file.tar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Scans an archive large enough to be split in ranges walked on several
+ * threads, and checks that it is read as it is on a single thread. Some
+ * entries hold a tar archive of their own, a walk landing in one must not
+ * take its headers and end blocks for those of the archive. A corrupt header
+ * fails the scan either way.
+ */
+public class TarScanTests {
+
+	private static final long ARCHIVE_SIZE = 130L * 1024 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParallelScan() throws Exception {
+		Path archive = folder.newFile("large.tar").toPath();
+		writeArchive(archive, 0);
+		Map<String, String> sequential = listing(archive, "1");
+		Map<String, String> parallel = listing(archive, "4");
+		Assert.assertTrue(sequential.size() > 50000);
+		Assert.assertEquals(sequential, parallel);
+	}
+
+	@Test
+	public void testCorruptHeader() throws Exception {
+		Path archive = folder.newFile("corrupt.tar").toPath();
+		// in the middle of the last range
+		long corrupt = writeArchive(archive, ARCHIVE_SIZE * 3 / 4);
+		try (FileChannel ch = FileChannel.open(archive,
+				StandardOpenOption.WRITE)) {
+			ch.write(ByteBuffer.wrap(new byte[] { 'x' }), corrupt);
+		}
+		for (String threads : new String[] { "1", "4" }) {
+			try {
+				listing(archive, threads);
+				Assert.fail(threads);
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains(
+						" at " + corrupt + " "));
+			}
+		}
+	}
+
+	/*
+	 * Writes the archive and returns the offset of the first header at or
+	 * past the mark.
+	 */
+	private static long writeArchive(Path archive, long mark)
+			throws IOException {
+		byte[] nested = nestedArchive();
+		Random random = new Random(0);
+		long offset = 0;
+		long header = -1;
+		try (TarArchiveOutputStream tos = new TarArchiveOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(archive)))) {
+			for (int i = 0; offset < ARCHIVE_SIZE; i++) {
+				byte[] data = nested;
+				if (i % 1000 != 0) {
+					data = new byte[random.nextInt(2048)];
+					random.nextBytes(data);
+				}
+				if (header < 0 && offset >= mark) {
+					header = offset;
+				}
+				TarArchiveEntry entry = new TarArchiveEntry("dir" + i / 1000
+						+ "/entry" + i);
+				entry.setSize(data.length);
+				entry.setModTime(1000000000000L + i * 1000L);
+				tos.putArchiveEntry(entry);
+				tos.write(data);
+				tos.closeArchiveEntry();
+				// the names are short enough for a single header block
+				offset += TarConstants.HEADER_BLOCK
+						+ (data.length + TarConstants.DATA_BLOCK - 1)
+						/ TarConstants.DATA_BLOCK * TarConstants.DATA_BLOCK;
+			}
+		}
+		return header;
+	}
+
+	/*
+	 * Returns the size, time and hash of the content of every entry.
+	 */
+	private static Map<String, String> listing(Path archive, String threads)
+			throws Exception {
+		final Map<String, String> entries = new TreeMap<>();
+		try (FileSystem tfs = FileSystems.newFileSystem(SystemArchiveTests
+				.uri("tar", archive), SystemArchiveTests.env("scan.threads",
+				threads))) {
+			Files.walkFileTree(tfs.getPath("/"), new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) throws IOException {
+					entries.put(file.toString(), attrs.size() + " "
+							+ attrs.lastModifiedTime() + " "
+							+ Arrays.hashCode(Files.readAllBytes(file)));
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		return entries;
+	}
+
+	/*
+	 * Returns a tar archive of a few entries, ending with its zero blocks.
+	 */
+	private static byte[] nestedArchive() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (TarArchiveOutputStream tos = new TarArchiveOutputStream(baos)) {
+			for (int i = 0; i < 8; i++) {
+				byte[] data = new byte[700];
+				TarArchiveEntry entry = new TarArchiveEntry("nested/entry" + i);
+				entry.setSize(data.length);
+				tos.putArchiveEntry(entry);
+				tos.write(data);
+				tos.closeArchiveEntry();
+			}
+		}
+		return baos.toByteArray();
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.github.peterlaker.nio.file.tar.bz2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Splits bzip2 files in their blocks and reads them at random, the blocks
+ * inflated on several threads, and checks when the magics found are stored
+ * next to the file.
+ */
+public class Bzip2ArchiveChannelTests {
+
+	// blocks of 100k, in two streams
+	private static final byte[] DATA = numbers(300000);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMagics() throws Exception {
+		// made by bzip2 -1 in two blocks
+		Path file = Paths.get("src/test/resources/system.tar.bz2");
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Long> magics = Bzip2Blocks.scan(ch, 0, ch.size());
+			Assert.assertEquals(3, magics.size());
+			Assert.assertEquals(Long.valueOf(4 * 8 << 1), magics.get(0));
+			Assert.assertEquals(0, magics.get(1) & 1);
+			Assert.assertEquals(1, magics.get(2) & 1);
+			// the same magics when the file is scanned in ranges
+			for (long split = 1; split < ch.size(); split += 97) {
+				List<Long> ranges = new ArrayList<>(Bzip2Blocks.scan(ch, 0,
+						split));
+				ranges.addAll(Bzip2Blocks.scan(ch, split, ch.size()));
+				Assert.assertEquals(Long.toString(split), magics, ranges);
+			}
+		}
+	}
+
+	@Test
+	public void testSystemBzip2() throws Exception {
+		Path file = Paths.get("src/test/resources/system.tar.bz2");
+		byte[] expected;
+		try (InputStream is = new BZip2CompressorInputStream(Files
+				.newInputStream(file), true)) {
+			expected = readAll(is);
+		}
+		try (SeekableByteChannel sbc = new Bzip2ArchiveChannel(file,
+				index(file), 2, false)) {
+			Assert.assertEquals(expected.length, sbc.size());
+			ByteBuffer bb = ByteBuffer.allocate(expected.length);
+			sbc.position(0);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertTrue(Arrays.equals(expected, bb.array()));
+		}
+	}
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		Path file = newFile();
+		for (int threads : new int[] { 1, 4 }) {
+			try (SeekableByteChannel sbc = new Bzip2ArchiveChannel(file,
+					index(file), threads, false)) {
+				assertRandomReads(sbc);
+			}
+		}
+	}
+
+	@Test
+	public void testStoredIndex() throws Exception {
+		Path file = newFile();
+		Path index = index(file);
+		try (SeekableByteChannel sbc = new Bzip2ArchiveChannel(file,
+				index(file), 2, false)) {
+			assertRandomReads(sbc);
+		}
+		Assert.assertFalse(Files.exists(index));
+		try (SeekableByteChannel sbc = new Bzip2ArchiveChannel(file,
+				index(file), 2, true)) {
+			assertRandomReads(sbc);
+		}
+		List<Long> magics;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			magics = Bzip2Blocks.scan(ch, 0, ch.size());
+		}
+		Assert.assertEquals(magics, Bzip2Index.load(index, file));
+		try (SeekableByteChannel sbc = new Bzip2ArchiveChannel(file,
+				index(file), 2, true)) {
+			assertRandomReads(sbc);
+		}
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files
+				.getLastModifiedTime(file).toMillis() + 1000));
+		Assert.assertNull(Bzip2Index.load(index, file));
+	}
+
+	private static Path index(Path file) {
+		return file.resolveSibling(file.getFileName() + Bzip2Index.SUFFIX);
+	}
+
+	/*
+	 * Reads backwards and forwards, within a block, across blocks and
+	 * streams.
+	 */
+	private static void assertRandomReads(SeekableByteChannel sbc)
+			throws IOException {
+		long[] positions = { DATA.length - 1000, 100, 1000000, 950000,
+				1500000, 99500, 200, DATA.length - 1 };
+		for (long position : positions) {
+			int length = (int) Math.min(1000, DATA.length - position);
+			ByteBuffer bb = ByteBuffer.allocate(length);
+			sbc.position(position);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertArrayEquals(Long.toString(position), Arrays
+					.copyOfRange(DATA, (int) position, (int) position
+							+ length), bb.array());
+		}
+		Assert.assertEquals(-1, sbc.read(ByteBuffer.allocate(1)));
+		Assert.assertEquals(DATA.length, sbc.size());
+	}
+
+	/*
+	 * Writes the data in two streams of blocks of 100k.
+	 */
+	private Path newFile() throws IOException {
+		Path file = folder.newFile("data.bz2").toPath();
+		int half = DATA.length / 2;
+		try (OutputStream os = Files.newOutputStream(file)) {
+			writeStream(os, 0, half);
+			writeStream(os, half, DATA.length);
+		}
+		return file;
+	}
+
+	private static void writeStream(OutputStream os, int from, int to)
+			throws IOException {
+		BZip2CompressorOutputStream bzos = new BZip2CompressorOutputStream(os,
+				1);
+		bzos.write(DATA, from, to - from);
+		bzos.finish();
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		int n;
+		while ((n = is.read(buffer)) > 0) {
+			baos.write(buffer, 0, n);
+		}
+		return baos.toByteArray();
+	}
+
+	static byte[] numbers(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			sb.append(i).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
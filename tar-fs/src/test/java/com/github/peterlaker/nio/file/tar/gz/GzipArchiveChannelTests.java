@@ -0,0 +1,161 @@
+package com.github.peterlaker.nio.file.tar.gz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads gzip files at random through the checkpoints of their index, across
+ * members and stored blocks, and checks when the index is stored next to the
+ * file.
+ */
+public class GzipArchiveChannelTests {
+
+	// a few spans of the index
+	private static final byte[] DATA = numbers(1500000);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		Path file = newFile();
+		try (SeekableByteChannel sbc = new GzipArchiveChannel(file,
+				index(file), false)) {
+			assertRandomReads(sbc);
+		}
+	}
+
+	@Test
+	public void testSystemGzip() throws Exception {
+		// made by gzip in two members
+		Path file = Paths.get("src/test/resources/system.tar.gz");
+		byte[] expected;
+		try (InputStream is = new GZIPInputStream(Files.newInputStream(file))) {
+			expected = readAll(is);
+		}
+		try (SeekableByteChannel sbc = new GzipArchiveChannel(file,
+				index(file), false)) {
+			Assert.assertEquals(expected.length, sbc.size());
+			ByteBuffer bb = ByteBuffer.allocate(expected.length);
+			sbc.position(0);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertTrue(Arrays.equals(expected, bb.array()));
+		}
+	}
+
+	@Test
+	public void testStoredIndex() throws Exception {
+		Path file = newFile();
+		Path index = index(file);
+		try (SeekableByteChannel sbc = new GzipArchiveChannel(file,
+				index(file), false)) {
+			sbc.read(ByteBuffer.allocate(1000));
+			Assert.assertEquals(DATA.length, sbc.size());
+		}
+		Assert.assertFalse(Files.exists(index));
+		// completed on close when only the start was read
+		try (SeekableByteChannel sbc = new GzipArchiveChannel(file,
+				index(file), true)) {
+			sbc.read(ByteBuffer.allocate(1000));
+		}
+		Assert.assertTrue(Files.exists(index));
+		GzipIndex stored = GzipIndex.load(index, file);
+		Assert.assertTrue(stored.isComplete());
+		Assert.assertEquals(DATA.length, stored.size());
+		try (SeekableByteChannel sbc = new GzipArchiveChannel(file,
+				index(file), true)) {
+			assertRandomReads(sbc);
+		}
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files
+				.getLastModifiedTime(file).toMillis() + 1000));
+		Assert.assertNull(GzipIndex.load(index, file));
+	}
+
+	private static Path index(Path file) {
+		return file.resolveSibling(file.getFileName() + GzipIndex.SUFFIX);
+	}
+
+	/*
+	 * Reads backwards and forwards, within a span, across spans and members.
+	 */
+	private static void assertRandomReads(SeekableByteChannel sbc)
+			throws IOException {
+		long[] positions = { DATA.length - 1000, 100, 6000000, 3400000,
+				3600000, 3000000, 10000000, 200, DATA.length - 1 };
+		for (long position : positions) {
+			int length = (int) Math.min(1000, DATA.length - position);
+			ByteBuffer bb = ByteBuffer.allocate(length);
+			sbc.position(position);
+			while (bb.hasRemaining() && sbc.read(bb) > 0) {
+			}
+			Assert.assertArrayEquals(Long.toString(position), Arrays
+					.copyOfRange(DATA, (int) position, (int) position
+							+ length), bb.array());
+		}
+		Assert.assertEquals(-1, sbc.read(ByteBuffer.allocate(1)));
+		Assert.assertEquals(DATA.length, sbc.size());
+	}
+
+	/*
+	 * Writes the data in three members, the second one of stored blocks.
+	 */
+	private Path newFile() throws IOException {
+		Path file = folder.newFile("data.gz").toPath();
+		try (OutputStream os = Files.newOutputStream(file)) {
+			writeMember(os, 0, 3000000, Deflater.BEST_COMPRESSION);
+			writeMember(os, 3000000, 3500000, Deflater.NO_COMPRESSION);
+			writeMember(os, 3500000, DATA.length, Deflater.DEFAULT_COMPRESSION);
+		}
+		return file;
+	}
+
+	private static void writeMember(OutputStream os, int from, int to,
+			final int level) throws IOException {
+		GZIPOutputStream gzos = new GZIPOutputStream(os) {
+
+			{
+				def.setLevel(level);
+			}
+		};
+		gzos.write(DATA, from, to - from);
+		gzos.finish();
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		int n;
+		while ((n = is.read(buffer)) > 0) {
+			baos.write(buffer, 0, n);
+		}
+		return baos.toByteArray();
+	}
+
+	static byte[] numbers(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			sb.append(i).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+}